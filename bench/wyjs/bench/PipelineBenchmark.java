@@ -0,0 +1,216 @@
+// This file is part of the Whiley-to-Java Compiler (wyjc).
+//
+// The Whiley-to-Java Compiler is free software; you can redistribute
+// it and/or modify it under the terms of the GNU General Public
+// License as published by the Free Software Foundation; either
+// version 3 of the License, or (at your option) any later version.
+//
+// The Whiley-to-Java Compiler is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE. See the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with the Whiley-to-Java Compiler. If not, see
+// <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+package wyjs.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import wyjs.ModuleLoader;
+import wyjs.ast.JsNode;
+import wyjs.ast.util.JsPrettyFormatter;
+import wyjs.lang.Module;
+import wyjs.stages.NameResolution;
+import wyjs.stages.Parser;
+import wyjs.stages.TokenStream;
+import wyjs.stages.TypeChecker;
+
+/**
+ * Benchmarks each stage of the compiler on its own, over either the valid
+ * test corpus or one large synthetic module. The input to each stage is
+ * produced by running the stages before it during setup. The parser releases
+ * tokens as it reads them, and name resolution and type checking modify the
+ * modules they are given, so fresh tokens or modules are prepared before each
+ * invocation of those benchmarks.
+ *
+ * Run with <code>ant bench</code>, from the root of the repository.
+ *
+ * @author djp
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class Input {
+
+    /**
+     * Either "corpus", for every compiling file in the corpus directory,
+     * "synthetic", for a generated module, or "expressions", for a generated
+     * module made up mostly of long expressions.
+     */
+    @Param({ "corpus", "synthetic", "expressions" })
+    public String input;
+
+    /**
+     * The number of functions in a generated module.
+     */
+    @Param({ "1000" })
+    public int size;
+
+    public Workload workload;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+      if (input.equals("corpus")) {
+        workload =
+            Workload.corpus(new File(System.getProperty("wyjs.corpus",
+                "tests/valid")));
+      } else if (input.equals("expressions")) {
+        workload = Workload.expressions(size);
+      } else {
+        workload = Workload.synthetic(size);
+      }
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Loader {
+
+    public ModuleLoader loader;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      loader = new ModuleLoader(Workload.WHILEYPATH);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+      loader.close();
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Lexed {
+
+    public List<TokenStream> tokens;
+
+    @Setup(Level.Invocation)
+    public void setup(Input in) throws IOException {
+      tokens = in.workload.lex();
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Parsed {
+
+    public List<Module> modules;
+
+    @Setup(Level.Invocation)
+    public void setup(Input in, Loader l) throws IOException {
+      l.loader.refresh();
+      modules = in.workload.register(l.loader);
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Resolved {
+
+    public List<Module> modules;
+
+    @Setup(Level.Invocation)
+    public void setup(Input in, Loader l) throws IOException {
+      l.loader.refresh();
+      modules = in.workload.resolve(l.loader);
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Checked {
+
+    public List<Module> modules;
+
+    @Setup(Level.Trial)
+    public void setup(Input in, Loader l) throws IOException {
+      l.loader.refresh();
+      modules = in.workload.check(l.loader);
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Built {
+
+    public List<JsNode> nodes;
+
+    @Setup(Level.Trial)
+    public void setup(Input in, Checked checked) throws IOException {
+      nodes = in.workload.build(checked.modules);
+    }
+  }
+
+  @Benchmark
+  public List<TokenStream> lex(Input in) throws IOException {
+    return in.workload.lex();
+  }
+
+  @Benchmark
+  public void parse(Input in, Lexed lexed, Blackhole bh) {
+    List<Workload.Source> sources = in.workload.sources;
+    for (int i = 0; i != sources.size(); ++i) {
+      bh.consume(new Parser(sources.get(i).filename, lexed.tokens.get(i))
+          .read());
+    }
+  }
+
+  @Benchmark
+  public List<Module> resolve(Loader l, Parsed parsed) {
+    new NameResolution(l.loader).resolve(parsed.modules);
+    return parsed.modules;
+  }
+
+  @Benchmark
+  public List<Module> check(Loader l, Resolved resolved) {
+    new TypeChecker(l.loader).check(resolved.modules);
+    return resolved.modules;
+  }
+
+  @Benchmark
+  public List<JsNode> build(Input in, Checked checked) throws IOException {
+    return in.workload.build(checked.modules);
+  }
+
+  @Benchmark
+  public void compile(Built built, Blackhole bh) throws IOException {
+    for (JsNode node : built.nodes) {
+      StringBuilder out = new StringBuilder();
+      node.compile(new JsPrettyFormatter(), out);
+      bh.consume(out);
+    }
+  }
+}
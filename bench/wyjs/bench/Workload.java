@@ -0,0 +1,260 @@
+// This file is part of the Whiley-to-Java Compiler (wyjc).
+//
+// The Whiley-to-Java Compiler is free software; you can redistribute
+// it and/or modify it under the terms of the GNU General Public
+// License as published by the Free Software Foundation; either
+// version 3 of the License, or (at your option) any later version.
+//
+// The Whiley-to-Java Compiler is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE. See the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with the Whiley-to-Java Compiler. If not, see
+// <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+package wyjs.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import wyjs.ModuleLoader;
+import wyjs.ast.Builder;
+import wyjs.ast.JsNode;
+import wyjs.lang.Module;
+import wyjs.stages.Lexer;
+import wyjs.stages.NameResolution;
+import wyjs.stages.Parser;
+import wyjs.stages.TokenStream;
+import wyjs.stages.TypeChecker;
+
+/**
+ * A workload is the set of source files which the benchmarks compile, held
+ * in memory so that reading them from disk isn't measured. It also provides
+ * each stage of the pipeline, so that a benchmark can prepare the input to
+ * the stage it measures by running those before it.
+ *
+ * @author djp
+ *
+ */
+public class Workload {
+
+  /**
+   * The whileypath used to compile a workload, relative to the root of the
+   * repository (which is where the benchmarks are expected to run).
+   */
+  public static final List<String> WHILEYPATH = Arrays.asList(".", "stdlib/");
+
+  public static final class Source {
+
+    public final String filename;
+    public final byte[] text;
+
+    public Source(String filename, byte[] text) {
+      this.filename = filename;
+      this.text = text;
+    }
+  }
+
+  public final List<Source> sources;
+
+  private Workload(List<Source> sources) {
+    this.sources = sources;
+  }
+
+  /**
+   * Read every source file in the given directory which compiles on its own.
+   * Files which fail any stage of the compiler are left out, as otherwise
+   * they would stop the benchmarks of later stages.
+   *
+   * @param dir
+   * @return
+   * @throws IOException
+   */
+  public static Workload corpus(File dir) throws IOException {
+    File[] files = dir.listFiles();
+    if (files == null) {
+      throw new IOException("no such directory: " + dir);
+    }
+    Arrays.sort(files);
+
+    ArrayList<Source> sources = new ArrayList<Source>();
+    ModuleLoader loader = new ModuleLoader(WHILEYPATH);
+    try {
+      for (File file : files) {
+        if (!file.getName().endsWith(".wyjs")) {
+          continue;
+        }
+        Source source = new Source(file.getPath(), read(file));
+        Workload single = new Workload(Arrays.asList(source));
+        try {
+          loader.refresh();
+          single.build(single.check(loader));
+          sources.add(source);
+        } catch (Exception e) {
+          // this file doesn't compile, so skip it.
+        }
+      }
+    } finally {
+      loader.close();
+    }
+    return new Workload(sources);
+  }
+
+  /**
+   * Generate a single large module containing the given number of functions.
+   * Each function loops over a list, branching on its elements, and all of
+   * them are called from main.
+   *
+   * @param functions
+   * @return
+   */
+  public static Workload synthetic(int functions) {
+    StringBuilder text = new StringBuilder();
+    text.append("define point as {int x, int y}\n");
+    text.append("define LIMIT as 100\n\n");
+    for (int i = 0; i != functions; ++i) {
+      text.append("int f" + i + "(int x, [int] xs, point p):\n");
+      text.append("    i = 0\n");
+      text.append("    r = x + p.x * " + i + "\n");
+      text.append("    while i < |xs|:\n");
+      text.append("        if xs[i] > r && r < LIMIT:\n");
+      text.append("            r = r + xs[i] * 2\n");
+      text.append("        else:\n");
+      text.append("            r = r - (p.y + 1)\n");
+      text.append("        i = i + 1\n");
+      text.append("    return r\n\n");
+    }
+    text.append("void main([string] args):\n");
+    text.append("    p = {x: 1, y: 2}\n");
+    text.append("    xs = [1, 2, 3, 4, 5]\n");
+    for (int i = 0; i != functions; ++i) {
+      text.append("    println(str(f" + i + "(" + i + ", xs, p)))\n");
+    }
+
+    return workload("Synthetic.wyjs", text);
+  }
+
+  /**
+   * Generate a single large module containing the given number of functions,
+   * whose bodies are made up of long chains of arithmetic, comparison and
+   * logical operators, mixing precedence levels and parentheses.
+   *
+   * @param functions
+   * @return
+   */
+  public static Workload expressions(int functions) {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i != functions; ++i) {
+      text.append("int e" + i + "(int a, int b, int c, [int] xs):\n");
+      text.append("    x = a + b * c - (a - b) / (c + " + i
+          + ") * 2 + xs[0] * xs[|xs| - 1] - a * a * b\n");
+      text.append("    y = (x + a) * (x - b) * (x + c) / (a * b + c * " + i
+          + " + 1) - x / 2 + b - c + a\n");
+      text.append("    if a < b + c && b * 2 >= c - a || a == c && b != c"
+          + " || x + y <= a * b * c:\n");
+      text.append("        x = x * (a + b) * (b + c) - c / (a + 1) + y"
+          + " * y - " + i + "\n");
+      text.append("    while x > a * 2 + b && y < |xs| * " + i
+          + " + c || x - y >= a:\n");
+      text.append("        x = x - (a + b + c) * 2 / (xs[a] + 1)\n");
+      text.append("    return x + y * (a - b * (c + x * (y - a)))\n\n");
+    }
+    text.append("void main([string] args):\n");
+    text.append("    xs = [1, 2, 3, 4, 5]\n");
+    for (int i = 0; i != functions; ++i) {
+      text.append("    println(str(e" + i + "(1, 2, 3, xs)))\n");
+    }
+    return workload("Expressions.wyjs", text);
+  }
+
+  private static Workload workload(String filename, StringBuilder text) {
+    try {
+      return new Workload(Arrays.asList(new Source(filename, text.toString()
+          .getBytes("UTF8"))));
+    } catch (IOException e) {
+      // every virtual machine supports UTF8.
+      throw new RuntimeException(e);
+    }
+  }
+
+  public List<TokenStream> lex() throws IOException {
+    ArrayList<TokenStream> tokens = new ArrayList<TokenStream>();
+    for (Source source : sources) {
+      tokens.add(new Lexer(source.filename, new ByteArrayInputStream(
+          source.text)).lex());
+    }
+    return tokens;
+  }
+
+  public List<Module> parse(List<TokenStream> tokens) {
+    ArrayList<Module> modules = new ArrayList<Module>();
+    for (int i = 0; i != sources.size(); ++i) {
+      modules.add(new Parser(sources.get(i).filename, tokens.get(i)).read());
+    }
+    return modules;
+  }
+
+  /**
+   * Lex and parse the workload, registering the modules with the given
+   * loader.
+   *
+   * @param loader
+   * @return
+   * @throws IOException
+   */
+  public List<Module> register(ModuleLoader loader) throws IOException {
+    List<Module> modules = parse(lex());
+    for (Module module : modules) {
+      loader.register(module);
+    }
+    return modules;
+  }
+
+  public List<Module> resolve(ModuleLoader loader) throws IOException {
+    List<Module> modules = register(loader);
+    new NameResolution(loader).resolve(modules);
+    return modules;
+  }
+
+  public List<Module> check(ModuleLoader loader) throws IOException {
+    List<Module> modules = resolve(loader);
+    new TypeChecker(loader).check(modules);
+    return modules;
+  }
+
+  public List<JsNode> build(List<Module> modules) throws IOException {
+    ArrayList<JsNode> nodes = new ArrayList<JsNode>();
+    for (Module module : modules) {
+      nodes.add(new Builder().build(module));
+    }
+    return nodes;
+  }
+
+  private static byte[] read(File file) throws IOException {
+    InputStream in = new FileInputStream(file);
+    try {
+      byte[] text = new byte[(int) file.length()];
+      int read = 0;
+      while (read < text.length) {
+        int n = in.read(text, read, text.length - read);
+        if (n < 0) {
+          break;
+        }
+        read += n;
+      }
+      return Arrays.copyOf(text, read);
+    } finally {
+      in.close();
+    }
+  }
+}
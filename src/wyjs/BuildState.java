@@ -0,0 +1,333 @@
+// This file is part of the Whiley-to-Java Compiler (wyjc).
+//
+// The Whiley-to-Java Compiler is free software; you can redistribute
+// it and/or modify it under the terms of the GNU General Public
+// License as published by the Free Software Foundation; either
+// version 3 of the License, or (at your option) any later version.
+//
+// The Whiley-to-Java Compiler is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE. See the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with the Whiley-to-Java Compiler. If not, see
+// <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+package wyjs;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import wyjs.lang.Module;
+import wyjs.lang.ModuleID;
+
+/**
+ * The build state records what was known about the modules of a successful
+ * build: the hash of each source file, and the modules each one depends upon.
+ * Comparing the state of the previous build against that of the current one
+ * identifies which modules need to be checked and translated again.
+ *
+ * The state is stored as a text file. The first line identifies the format
+ * and the whileypath; every other line describes one module, with the fields
+ * separated by tabs.
+ *
+ * @author djp
+ *
+ */
+public class BuildState {
+
+  private static final String HEADER = "wyjs-build-state 1";
+
+  /**
+   * A module entry records a single module which was part of the build.
+   */
+  private static final class Entry {
+
+    /**
+     * The file the module was read from.
+     */
+    public final String filename;
+
+    /**
+     * The hash of the module's source file.
+     */
+    public final String hash;
+
+    /**
+     * The modules which this module depends upon. This is null for library
+     * modules, which are loaded from the whileypath rather than compiled.
+     */
+    public final Set<String> dependencies;
+
+    public Entry(String filename, String hash, Set<String> dependencies) {
+      this.filename = filename;
+      this.hash = hash;
+      this.dependencies = dependencies;
+    }
+  }
+
+  private final String whileypath;
+
+  /**
+   * The modules map contains an entry for each module compiled, and each
+   * library module loaded, in the order they were added.
+   */
+  private final LinkedHashMap<String, Entry> modules =
+      new LinkedHashMap<String, Entry>();
+
+  public BuildState(List<String> whileypath) {
+    this(whileypath.toString());
+  }
+
+  private BuildState(String whileypath) {
+    this.whileypath = whileypath;
+  }
+
+  /**
+   * Record a module being compiled, along with the modules it depends upon.
+   *
+   * @param module
+   * @param dependencies
+   * @throws IOException
+   */
+  public void add(Module module, Set<ModuleID> dependencies)
+      throws IOException {
+    TreeSet<String> deps = new TreeSet<String>();
+    for (ModuleID dep : dependencies) {
+      deps.add(dep.toString());
+    }
+    modules.put(module.id().toString(), new Entry(module.filename,
+        hash(new FileInputStream(module.filename)), deps));
+  }
+
+  /**
+   * Record a library module, which was loaded from the whileypath.
+   *
+   * @param module
+   * @param source The module's source, which is closed once read.
+   * @throws IOException
+   */
+  public void addLibrary(Module module, InputStream source) throws IOException {
+    modules.put(module.id().toString(), new Entry(module.filename,
+        hash(source), null));
+  }
+
+  /**
+   * Determine which of the given modules must be checked and translated,
+   * given the state of the previous build. A module must be compiled if its
+   * source file or dependencies have changed, if its output is missing, or
+   * if any module it depends upon (directly or indirectly) has changed. If
+   * the whileypath or the set of modules being compiled differs from the
+   * previous build, or any library module has changed, then everything is
+   * compiled.
+   *
+   * @param previous The state of the previous build, or null if there was
+   *          none.
+   * @param files The modules of the current build, each of which must have
+   *          been added.
+   * @return The modules to compile, in the order given.
+   */
+  public List<Module> dirty(BuildState previous, List<Module> files) {
+    if (previous == null || !whileypath.equals(previous.whileypath)
+        || !compiled().equals(previous.compiled())) {
+      return files;
+    }
+
+    HashSet<String> changed = new HashSet<String>();
+    for (String mid : modules.keySet()) {
+      Entry now = modules.get(mid);
+      Entry before = previous.modules.get(mid);
+      if (now.dependencies == null) {
+        // Library modules depend on each other in ways which are not
+        // recorded, so a change to any of them affects everything.
+        if (before != null && before.dependencies == null
+            && !(now.hash.equals(before.hash) && now.filename
+                .equals(before.filename))) {
+          return files;
+        }
+      } else if (before == null || !now.hash.equals(before.hash)
+          || !now.filename.equals(before.filename)
+          || !now.dependencies.equals(before.dependencies)) {
+        changed.add(mid);
+      }
+    }
+
+    for (Module m : files) {
+      if (!new File(m.filename.replace(".wyjs", ".js")).exists()) {
+        changed.add(m.id().toString());
+      }
+    }
+
+    // Now, propagate changes to dependents until nothing else changes.
+    boolean modified = true;
+    while (modified) {
+      modified = false;
+      for (String mid : modules.keySet()) {
+        Entry e = modules.get(mid);
+        if (e.dependencies != null && !changed.contains(mid)) {
+          for (String dep : e.dependencies) {
+            if (changed.contains(dep)) {
+              changed.add(mid);
+              modified = true;
+              break;
+            }
+          }
+        }
+      }
+    }
+
+    ArrayList<Module> dirty = new ArrayList<Module>();
+    for (Module m : files) {
+      if (changed.contains(m.id().toString())) {
+        dirty.add(m);
+      }
+    }
+    return dirty;
+  }
+
+  /**
+   * Get the files of the modules which were compiled, rather than loaded
+   * from the whileypath.
+   *
+   * @return
+   */
+  private Set<String> compiled() {
+    HashSet<String> files = new HashSet<String>();
+    for (Entry e : modules.values()) {
+      if (e.dependencies != null) {
+        files.add(e.filename);
+      }
+    }
+    return files;
+  }
+
+  /**
+   * Read the build state from the given file. If the file doesn't exist, or
+   * isn't a build state file, then there is no previous state.
+   *
+   * @param file
+   * @return The state read, or null if there was none.
+   * @throws IOException
+   */
+  public static BuildState read(File file) throws IOException {
+    if (!file.exists()) {
+      return null;
+    }
+
+    BufferedReader in =
+        new BufferedReader(new InputStreamReader(new FileInputStream(file),
+            "UTF8"));
+    try {
+      String line = in.readLine();
+      if (line == null || !line.startsWith(HEADER + "\t")) {
+        return null;
+      }
+
+      BuildState state = new BuildState(line.substring(HEADER.length() + 1));
+      while ((line = in.readLine()) != null) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length != 5) {
+          return null;
+        }
+        Set<String> deps = null;
+        if (fields[3].equals("module")) {
+          deps = new TreeSet<String>();
+          for (String dep : fields[4].split(",")) {
+            if (!dep.equals("")) {
+              deps.add(dep);
+            }
+          }
+        }
+        state.modules.put(fields[0], new Entry(fields[1], fields[2], deps));
+      }
+      return state;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Write this build state to the given file.
+   *
+   * @param file
+   * @throws IOException
+   */
+  public void write(File file) throws IOException {
+    PrintWriter out =
+        new PrintWriter(new OutputStreamWriter(new FileOutputStream(file),
+            "UTF8"));
+    try {
+      out.println(HEADER + "\t" + whileypath);
+      for (String mid : modules.keySet()) {
+        Entry e = modules.get(mid);
+        out.print(mid + "\t" + e.filename + "\t" + e.hash + "\t");
+        if (e.dependencies == null) {
+          out.println("library\t");
+        } else {
+          String deps = "";
+          for (String dep : e.dependencies) {
+            deps += deps.equals("") ? dep : "," + dep;
+          }
+          out.println("module\t" + deps);
+        }
+      }
+    } finally {
+      out.close();
+    }
+    if (out.checkError()) {
+      throw new IOException("unable to write build state: " + file);
+    }
+  }
+
+  /**
+   * Compute the hash of the given stream's contents. The stream is closed
+   * once read.
+   *
+   * @param in
+   * @return The hash, as a hexadecimal string.
+   * @throws IOException
+   */
+  public static String hash(InputStream in) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+
+    try {
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        digest.update(buffer, 0, read);
+      }
+    } finally {
+      in.close();
+    }
+
+    StringBuilder hex = new StringBuilder();
+    for (byte b : digest.digest()) {
+      hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+      hex.append(Character.forDigit(b & 0xF, 16));
+    }
+    return hex.toString();
+  }
+}
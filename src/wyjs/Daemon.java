@@ -0,0 +1,134 @@
+// This file is part of the Whiley-to-Java Compiler (wyjc).
+//
+// The Whiley-to-Java Compiler is free software; you can redistribute
+// it and/or modify it under the terms of the GNU General Public
+// License as published by the Free Software Foundation; either
+// version 3 of the License, or (at your option) any later version.
+//
+// The Whiley-to-Java Compiler is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE. See the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with the Whiley-to-Java Compiler. If not, see
+// <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+package wyjs;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The daemon is a long-lived compiler process which accepts compilation
+ * requests on standard input. Module loaders (and hence the modules they have
+ * loaded and the packages they have found), as well as interned types, are
+ * retained between requests, so that only the files which have changed need
+ * be read again.
+ *
+ * Each request is a single line containing the same arguments that would be
+ * given to <code>wyjs</code>, separated by whitespace. An argument containing
+ * whitespace may be enclosed in double quotes, within which a backslash
+ * escapes the following character. Once the request has been processed, a
+ * single line of the form <code>exit N</code> is written to standard output,
+ * where N is the exit code the compiler would have returned. A request which
+ * cannot be processed at all (for example, one with an unknown option) gets
+ * the exit code for an internal failure, and the daemon carries on. Error
+ * messages are written to standard error, as usual. The daemon stops at the
+ * end of its input, or on a line containing <code>quit</code>.
+ *
+ * @author djp
+ *
+ */
+public class Daemon {
+
+  public static void main(String[] args) throws IOException {
+    BufferedReader in =
+        new BufferedReader(new InputStreamReader(System.in, "UTF8"));
+
+    // standard output is reserved for replies.
+    PrintStream out = System.out;
+    System.setOut(System.err);
+
+    HashMap<List<String>, ModuleLoader> loaders =
+        new HashMap<List<String>, ModuleLoader>();
+
+    String line;
+    while ((line = in.readLine()) != null) {
+      line = line.trim();
+      if (line.equals("")) {
+        continue;
+      } else if (line.equals("quit")) {
+        break;
+      }
+
+      int code;
+      try {
+        code = Main.run(split(line), loaders);
+      } catch (Exception e) {
+        Main.errout.println("Error: " + e);
+        code = Main.UNKNOWN_ERROR;
+      }
+
+      Main.errout.flush();
+      out.println("exit " + code);
+      out.flush();
+    }
+  }
+
+  /**
+   * Split a request into its arguments, which are separated by whitespace.
+   * Whitespace within double quotes is part of an argument, and within them
+   * a backslash escapes the following character.
+   *
+   * @param line
+   * @return
+   * @throws IllegalArgumentException if a quote is not closed.
+   */
+  static String[] split(String line) {
+    ArrayList<String> args = new ArrayList<String>();
+    StringBuilder arg = null;
+    boolean quoted = false;
+
+    for (int i = 0; i != line.length(); ++i) {
+      char c = line.charAt(i);
+      if (quoted) {
+        if (c == '"') {
+          quoted = false;
+        } else if (c == '\\' && i + 1 < line.length()) {
+          arg.append(line.charAt(++i));
+        } else {
+          arg.append(c);
+        }
+      } else if (Character.isWhitespace(c)) {
+        if (arg != null) {
+          args.add(arg.toString());
+          arg = null;
+        }
+      } else {
+        if (arg == null) {
+          arg = new StringBuilder();
+        }
+        if (c == '"') {
+          quoted = true;
+        } else {
+          arg.append(c);
+        }
+      }
+    }
+
+    if (quoted) {
+      throw new IllegalArgumentException("unterminated quote: " + line);
+    } else if (arg != null) {
+      args.add(arg.toString());
+    }
+    return args.toArray(new String[args.size()]);
+  }
+}
@@ -18,22 +18,30 @@
 
 package wyjs;
 
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import wyjs.ast.Builder;
+import wyjs.ast.JsNode;
 import wyjs.ast.util.JsBareFormatter;
 import wyjs.ast.util.JsFormatter;
 import wyjs.ast.util.JsPrettyFormatter;
 import wyjs.lang.Module;
+import wyjs.lang.ModuleID;
 import wyjs.stages.*;
 import wyjs.util.*;
+import wyjs.util.Metrics.Phase;
 
 public class Main {
 
@@ -47,10 +55,6 @@ public class Main {
   public static final int MINOR_VERSION;
   public static final int MINOR_REVISION;
 
-  private static final Builder builder = new Builder();
-  private static final JsFormatter bare = new JsBareFormatter(),
-      pretty = new JsPrettyFormatter();
-
   static {
     try {
       errout = new PrintStream(System.err, true, "UTF8");
@@ -75,7 +79,24 @@ public class Main {
   }
 
   public static int run(String[] args) {
+    return run(args, null);
+  }
+
+  /**
+   * Run the compiler with the given command-line arguments. If a map of
+   * loaders is given, then the module loader for the requested whileypath is
+   * taken from it (or added to it), so that modules loaded by one run are
+   * available to the next.
+   * 
+   * @param args
+   * @param loaders Module loaders to reuse, keyed by whileypath, or null.
+   * @return
+   */
+  public static int run(String[] args, Map<List<String>, ModuleLoader> loaders) {
     boolean verbose = false;
+    int threads = 1;
+    File state = null;
+    File metricsFile = null;
     ArrayList<String> whileypath = new ArrayList<String>();
     ArrayList<String> bootpath = new ArrayList<String>();
     int fileArgsBegin = 0;
@@ -85,11 +106,11 @@ public class Main {
         String arg = args[i];
         if (arg.equals("-help")) {
           usage();
-          System.exit(0);
+          return 0;
         } else if (arg.equals("-version")) {
           System.out.println("Whiley-to-Java Compiler (wyjc) version "
               + MAJOR_VERSION + "." + MINOR_VERSION + "." + MINOR_REVISION);
-          System.exit(0);
+          return 0;
         } else if (arg.equals("-wp") || arg.equals("-whileypath")) {
           Collections.addAll(whileypath, args[++i].split(File.pathSeparator));
         } else if (arg.equals("-bp") || arg.equals("-bootpath")) {
@@ -98,6 +119,15 @@ public class Main {
           verbose = true;
         } else if (arg.equals("-verbose")) {
           verbose = true;
+        } else if (arg.equals("-incremental")) {
+          state = new File(args[++i]);
+        } else if (arg.equals("-metrics")) {
+          metricsFile = new File(args[++i]);
+        } else if (arg.equals("-j")) {
+          threads = Integer.parseInt(args[++i]);
+          if (threads < 1) {
+            throw new RuntimeException("Invalid thread count: " + args[i]);
+          }
         } else {
           throw new RuntimeException("Unknown option: " + args[i]);
         }
@@ -118,16 +148,42 @@ public class Main {
     whileypath.add(0, ".");
     whileypath.addAll(bootpath);
 
+    // the line index of each file compiled, for reporting errors.
+    Map<String, LineIndex> lines = new ConcurrentHashMap<String, LineIndex>();
+
     try {
       try {
         ArrayList<File> files = new ArrayList<File>();
         for (int i = fileArgsBegin; i != args.length; ++i) {
           files.add(new File(args[i]));
         }
-        compile(files, whileypath, verbose);
+        ModuleLoader loader;
+        if (loaders == null) {
+          loader = new ModuleLoader(whileypath);
+        } else {
+          loader = loaders.get(whileypath);
+          if (loader == null) {
+            loader = new ModuleLoader(whileypath);
+            loaders.put(whileypath, loader);
+          } else {
+            loader.refresh();
+          }
+        }
+        Metrics metrics = new Metrics();
+        try {
+          compile(files, loader, verbose, threads, state, metrics, lines);
+          if (metricsFile != null) {
+            metrics.write(metricsFile);
+          }
+        } finally {
+          if (loaders == null) {
+            loader.close();
+          }
+        }
       } catch (ParseError e) {
         if (e.filename() != null) {
-          outputSourceError(e.filename(), e.start(), e.end(), e.getMessage());
+          outputSourceError(e.filename(), lines.get(e.filename()), e.start(),
+              e.end(), e.getMessage());
         } else {
           System.err.println("syntax error (" + e.getMessage() + ").");
         }
@@ -139,7 +195,8 @@ public class Main {
         return PARSE_ERROR;
       } catch (SyntaxError e) {
         if (e.filename() != null) {
-          outputSourceError(e.filename(), e.start(), e.end(), e.getMessage());
+          outputSourceError(e.filename(), lines.get(e.filename()), e.start(),
+              e.end(), e.getMessage());
         } else {
           System.err.println("syntax error (" + e.getMessage() + ").");
         }
@@ -174,7 +231,13 @@ public class Main {
         {
             { "version", "Print version information" },
             { "verbose",
-                "Print detailed information on what the compiler is doing" } };
+                "Print detailed information on what the compiler is doing" },
+            { "j <n>",
+                "Lex, parse, resolve and translate files using n threads" },
+            { "incremental <file>",
+                "Only compile files affected by changes since the last build" },
+            { "metrics <file>",
+                "Write the time and memory taken by each phase as JSON" } };
 
     System.out.println("usage: wyjs <options> <source-files>");
     System.out.println("Options:");
@@ -207,58 +270,374 @@ public class Main {
    */
   public static void compile(List<File> files, List<String> whileypath,
       boolean verbose) throws IOException {
-    ArrayList<Module> wyfiles = new ArrayList<Module>();
+    compile(files, whileypath, verbose, 1);
+  }
+
+  /**
+   * This method compiles the list of given Whiley files, lexing, parsing,
+   * resolving and translating them on the given number of threads. The
+   * remaining stages see the modules in the order the files were given, so
+   * the output is identical to that of a sequential build.
+   * 
+   * @param files
+   * @param threads The number of threads to lex, parse, resolve and translate
+   *          with.
+   * @throws IOException
+   */
+  public static void compile(List<File> files, List<String> whileypath,
+      boolean verbose, int threads) throws IOException {
     ModuleLoader loader = new ModuleLoader(whileypath);
+    try {
+      compile(files, loader, verbose, threads, null);
+    } finally {
+      loader.close();
+    }
+  }
+
+  /**
+   * This method compiles the list of given Whiley files using the given
+   * module loader, which may already hold modules from a previous
+   * compilation. If a build state file is given, then only those modules
+   * affected by changes since the build which wrote it are checked and
+   * translated, and the file is updated once the build succeeds.
+   * 
+   * @param files
+   * @param loader
+   * @param threads The number of threads to lex, parse, resolve and translate
+   *          with.
+   * @param state The build state file, or null for a full build.
+   * @throws IOException
+   */
+  public static void compile(List<File> files, ModuleLoader loader,
+      boolean verbose, int threads, File state) throws IOException {
+    compile(files, loader, verbose, threads, state, new Metrics());
+  }
+
+  /**
+   * This method compiles the list of given Whiley files as above, recording
+   * how long each phase takes on each module in the given metrics. In verbose
+   * mode, the metrics are reported once the build succeeds.
+   * 
+   * @param files
+   * @param loader
+   * @param threads The number of threads to lex, parse, resolve and translate
+   *          with.
+   * @param state The build state file, or null for a full build.
+   * @param metrics
+   * @throws IOException
+   */
+  public static void compile(List<File> files, ModuleLoader loader,
+      boolean verbose, int threads, File state, Metrics metrics)
+      throws IOException {
+    compile(files, loader, verbose, threads, state, metrics,
+        new ConcurrentHashMap<String, LineIndex>());
+  }
+
+  /**
+   * This method compiles the list of given Whiley files as above, recording
+   * the line index of each file as it is lexed in the given map (keyed by
+   * filename), so that errors can be reported without reading the file
+   * again.
+   */
+  private static void compile(List<File> files, ModuleLoader loader,
+      boolean verbose, int threads, File state, Metrics metrics,
+      Map<String, LineIndex> lines) throws IOException {
+    Logger logger = Logger.NULL;
     if (verbose) {
-      loader.setLogger(new Logger() {
+      logger = new Logger() {
 
         public void logTimedMessage(String msg, long time) {
-          errout.print(msg);
-          errout.print(" ");
+          // modules may be loaded from several threads at once.
+          synchronized (errout) {
+            errout.print(msg);
+            errout.print(" ");
+
+            String t = Long.toString(time);
+
+            for (int i = 0; i < (80 - msg.length() - t.length()); ++i) {
+              errout.print(".");
+            }
+            errout.print(" [");
+            errout.print(time);
+            errout.println("ms]");
+          }
+        }
+      };
+    }
+    loader.setLogger(logger);
+
+    List<Module> wyfiles = parse(files, threads, metrics, lines);
+    for (Module module : wyfiles) {
+      loader.register(module);
+    }
 
-          String t = Long.toString(time);
+    Map<ModuleID, Set<ModuleID>> dependencies =
+        resolve(wyfiles, loader, threads, metrics);
 
-          for (int i = 0; i < (80 - msg.length() - t.length()); ++i) {
-            errout.print(".");
-          }
-          errout.print(" [");
-          errout.print(time);
-          errout.println("ms]");
+    List<Module> dirty = wyfiles;
+    BuildState current = null;
+    if (state != null) {
+      current = new BuildState(loader.whileypath());
+      for (Module module : wyfiles) {
+        current.add(module, dependencies.get(module.id()));
+      }
+      for (Module module : loader.libraries()) {
+        current.addLibrary(module, loader.openSource(module.filename));
+      }
+      dirty = current.dirty(BuildState.read(state), wyfiles);
+    }
+
+    new TypeChecker(loader, metrics).check(dirty);
+
+    translate(dirty, threads, metrics);
+
+    if (current != null) {
+      current.write(state);
+    }
+
+    metrics.log(logger);
+  }
+
+  /**
+   * Lex and parse the given files, returning their modules in the same order
+   * as the files. When more than one thread is requested, the files are
+   * processed on a fork-join pool; a single file is split into chunks of
+   * declarations to be parsed on the pool instead. If any file fails, the
+   * error of the first failing file (in the given order) is rethrown, just as
+   * it would be by a sequential build.
+   * 
+   * @param files
+   * @param threads
+   * @param metrics
+   * @return
+   * @throws IOException
+   */
+  private static List<Module> parse(List<File> files, int threads,
+      final Metrics metrics, final Map<String, LineIndex> lines)
+      throws IOException {
+    ArrayList<Module> modules = new ArrayList<Module>();
+
+    if (threads <= 1 || files.isEmpty()) {
+      for (File file : files) {
+        modules.add(parse(file, null, 1, metrics, lines));
+      }
+      return modules;
+    } else if (files.size() == 1) {
+      ForkJoinPool pool = new ForkJoinPool(threads);
+      try {
+        modules.add(parse(files.get(0), pool, threads, metrics, lines));
+      } finally {
+        pool.shutdown();
+      }
+      return modules;
+    }
+
+    ArrayList<Callable<Module>> tasks = new ArrayList<Callable<Module>>();
+    for (final File file : files) {
+      tasks.add(new Callable<Module>() {
+
+        public Module call() throws IOException {
+          return parse(file, null, 1, metrics, lines);
         }
       });
     }
 
-    for (File file : files) {
-      Lexer lexer = new Lexer(file.getPath());
-      Parser parser = new Parser(file.getPath(), lexer.scan());
-      Module module = parser.read();
-      wyfiles.add(module);
-      loader.register(module);
+    ForkJoinPool pool = new ForkJoinPool(Math.min(threads, files.size()));
+    try {
+      for (Future<Module> task : pool.invokeAll(tasks)) {
+        modules.add(join(task));
+      }
+    } finally {
+      pool.shutdown();
+    }
+
+    return modules;
+  }
+
+  /**
+   * Resolve the names used in the given modules, returning the modules which
+   * each one's names were resolved to. When more than one thread is
+   * requested, the modules are resolved on a fork-join pool, each with its
+   * own name resolver, whilst sharing the module loader. As with parsing, the
+   * error of the first failing module (in the given order) is the one
+   * rethrown.
+   * 
+   * @param modules
+   * @param loader
+   * @param threads
+   * @param metrics
+   * @return
+   * @throws IOException
+   */
+  private static Map<ModuleID, Set<ModuleID>> resolve(List<Module> modules,
+      final ModuleLoader loader, int threads, final Metrics metrics)
+      throws IOException {
+    HashMap<ModuleID, Set<ModuleID>> dependencies =
+        new HashMap<ModuleID, Set<ModuleID>>();
+
+    if (threads <= 1 || modules.size() <= 1) {
+      NameResolution resolver = new NameResolution(loader);
+      for (Module module : modules) {
+        dependencies.put(module.id(), resolve(module, resolver, metrics));
+      }
+      return dependencies;
+    }
+
+    ArrayList<Callable<Set<ModuleID>>> tasks =
+        new ArrayList<Callable<Set<ModuleID>>>();
+    for (final Module module : modules) {
+      tasks.add(new Callable<Set<ModuleID>>() {
+
+        public Set<ModuleID> call() {
+          return resolve(module, new NameResolution(loader), metrics);
+        }
+      });
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(Math.min(threads, modules.size()));
+    try {
+      List<Future<Set<ModuleID>>> results = pool.invokeAll(tasks);
+      for (int i = 0; i != modules.size(); ++i) {
+        dependencies.put(modules.get(i).id(), join(results.get(i)));
+      }
+    } finally {
+      pool.shutdown();
+    }
+
+    return dependencies;
+  }
+
+  private static Set<ModuleID> resolve(Module module,
+      NameResolution resolver, Metrics metrics) {
+    Metrics.Timer timer = metrics.start(module.filename, Phase.RESOLVE);
+    resolver.resolve(module);
+    timer.stop();
+    metrics.names(module.filename, resolver.hits(), resolver.misses());
+    return resolver.dependencies(module.id());
+  }
+
+  /**
+   * Translate the given modules, writing each one's Javascript and interface
+   * files. When more than one thread is requested, the modules are translated
+   * on a fork-join pool, each with its own builder and formatter. As with
+   * parsing, the error of the first failing module (in the given order) is
+   * the one rethrown.
+   * 
+   * @param modules
+   * @param threads
+   * @param metrics
+   * @throws IOException
+   */
+  private static void translate(List<Module> modules, int threads,
+      final Metrics metrics) throws IOException {
+    if (threads <= 1 || modules.size() <= 1) {
+      for (Module wf : modules) {
+        translate(wf, true, metrics);
+        ModuleInterface.write(wf);
+      }
+      return;
     }
 
-    new NameResolution(loader).resolve(wyfiles);
-    new TypeChecker(loader).check(wyfiles);
+    ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+    for (final Module wf : modules) {
+      tasks.add(new Callable<Void>() {
 
-    for (Module wf : wyfiles) {
-      translate(wf, true);
+        public Void call() throws IOException {
+          translate(wf, true, metrics);
+          ModuleInterface.write(wf);
+          return null;
+        }
+      });
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(Math.min(threads, modules.size()));
+    try {
+      for (Future<Void> task : pool.invokeAll(tasks)) {
+        join(task);
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Lex and parse the given file, whose declarations are parsed on the given
+   * executor (if any) using the given number of threads.
+   */
+  private static Module parse(File file, ExecutorService executor,
+      int threads, Metrics metrics, Map<String, LineIndex> lines)
+      throws IOException {
+    String filename = file.getPath();
+
+    // the file is lexed as it is parsed, so both are timed together.
+    Metrics.Timer timer = metrics.start(filename, Phase.PARSE);
+    Lexer lexer = new Lexer(filename);
+    lines.put(filename, lexer.lines());
+    TokenStream tokens = lexer.stream();
+    Parser parser = new Parser(filename, tokens);
+    Module module =
+        executor == null ? parser.read() : parser.read(executor, threads);
+    timer.stop();
+    metrics.tokens(filename, tokens.size());
+    metrics.nodes(filename, parser.nodes());
+    return module;
+  }
+
+  /**
+   * Wait for the given task to complete, rethrowing whatever it failed with.
+   * 
+   * @param task
+   * @return
+   * @throws IOException
+   */
+  private static <T> T join(Future<T> task) throws IOException {
+    try {
+      return task.get();
+    } catch (InterruptedException e) {
+      throw new IOException("interrupted", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new RuntimeException(cause);
     }
   }
 
   public static void translate(Module wf, boolean pp) throws IOException {
-    String filename = wf.filename.replace(".wyjs", ".js");
-    FileOutputStream fout = new FileOutputStream(filename);
-    PrintStream out = new PrintStream(fout);
+    translate(wf, pp, new Metrics());
+  }
+
+  private static void translate(Module wf, boolean pp, Metrics metrics)
+      throws IOException {
+    Metrics.Timer timer = metrics.start(wf.filename, Phase.BUILD);
+    JsNode js = new Builder().build(wf);
+    timer.stop();
 
-    // Comment out below as doesn't work yet!
-    out.println(builder.build(wf).compile(pp ? pretty : bare));
+    timer = metrics.start(wf.filename, Phase.EMIT);
+    String filename = wf.filename.replace(".wyjs", ".js");
+    BufferedWriter out =
+        new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(filename)));
 
-    out.close();
+    try {
+      JsFormatter ws = pp ? new JsPrettyFormatter() : new JsBareFormatter();
+      js.compile(ws, out);
+      out.newLine();
+    } finally {
+      out.close();
+    }
+    timer.stop();
   }
 
   /**
    * This method simply reads in the input file, and prints out a given line
    * of text, with little markers (i.e. '^') placed underneath a portion of
-   * it.
+   * it. The line is found by searching an index of the file's lines.
    * 
    * @param fileArg - the name of the file whose line to print
    * @param start - the start position of the offending region.
@@ -267,18 +646,26 @@ public class Main {
    */
   public static void outputSourceError(String fileArg, int start, int end,
       String message) throws IOException {
-    BufferedReader in =
-        new BufferedReader(new InputStreamReader(new FileInputStream(fileArg),
-            "UTF8"));
-
-    int line = 0;
-    String lineText = "";
-    while (in.ready() && start >= lineText.length()) {
-      start -= lineText.length() + 1;
-      end -= lineText.length() + 1;
-      lineText = in.readLine();
-      line = line + 1;
+    outputSourceError(fileArg, new Lexer(fileArg).lines(), start, end, message);
+  }
+
+  /**
+   * Report an error in the given file, whose lines are given by the index
+   * built when it was lexed, or null if it wasn't lexed by this compilation
+   * (in which case it is read again).
+   */
+  private static void outputSourceError(String fileArg, LineIndex lines,
+      int start, int end, String message) throws IOException {
+    if (lines == null) {
+      lines = new Lexer(fileArg).lines();
     }
+    int line = lines.line(start);
+    String lineText = lines.text(line);
+
+    // make the positions relative to the line (less one, as the loops below
+    // expect).
+    start -= lines.start(line) + 1;
+    end -= lines.start(line) + 1;
 
     errout.println(fileArg + ":" + line + ": " + message);
     // errout.println();
@@ -0,0 +1,644 @@
+// This file is part of the Whiley-to-Java Compiler (wyjc).
+//
+// The Whiley-to-Java Compiler is free software; you can redistribute
+// it and/or modify it under the terms of the GNU General Public
+// License as published by the Free Software Foundation; either
+// version 3 of the License, or (at your option) any later version.
+//
+// The Whiley-to-Java Compiler is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE. See the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with the Whiley-to-Java Compiler. If not, see
+// <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+package wyjs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import wyjs.lang.Expr;
+import wyjs.lang.Modifier;
+import wyjs.lang.Module;
+import wyjs.lang.ModuleID;
+import wyjs.lang.PkgID;
+import wyjs.lang.Stmt;
+import wyjs.lang.UnresolvedType;
+import wyjs.lang.Module.ConstDecl;
+import wyjs.lang.Module.Decl;
+import wyjs.lang.Module.FunDecl;
+import wyjs.lang.Module.Parameter;
+import wyjs.lang.Module.TypeDecl;
+import wyjs.util.Attribute;
+import wyjs.util.SyntacticElement;
+import wyjs.util.Symbols;
+
+/**
+ * A module interface is a compact binary summary of a compiled module. It
+ * holds the module's constants, types and function signatures (but not
+ * function bodies), with all names already resolved. Loading an interface
+ * gives the same information as lexing, parsing and resolving the module's
+ * source file, at a fraction of the cost.
+ *
+ * An interface records the length and modification time of the source file
+ * it was generated from, and is only used whilst these still match.
+ *
+ * @author djp
+ *
+ */
+public class ModuleInterface {
+
+  /**
+   * The file extension used for module interfaces.
+   */
+  public static final String EXTENSION = ".wyjsi";
+
+  private static final int MAGIC = 0x57594A49; // "WYJI"
+  private static final int VERSION = 3;
+
+  // Declaration kinds
+  private static final int CONSTANT = 1;
+  private static final int TYPE = 2;
+  private static final int FUNCTION = 3;
+
+  // Modifiers
+  private static final int PUBLIC = 1;
+  private static final int EXTERN = 2;
+
+  // Type kinds
+  private static final int T_ANY = 1;
+  private static final int T_VOID = 2;
+  private static final int T_NULL = 3;
+  private static final int T_EXISTENTIAL = 4;
+  private static final int T_BOOL = 5;
+  private static final int T_INT = 6;
+  private static final int T_REAL = 7;
+  private static final int T_CHAR = 8;
+  private static final int T_STRING = 9;
+  private static final int T_NAMED = 10;
+  private static final int T_LIST = 11;
+  private static final int T_SET = 12;
+  private static final int T_DICTIONARY = 13;
+  private static final int T_UNION = 14;
+  private static final int T_RECORD = 15;
+  private static final int T_TUPLE = 16;
+  private static final int T_FUN = 17;
+
+  // Expression kinds
+  private static final int E_VARIABLE = 1;
+  private static final int E_NULL = 2;
+  private static final int E_BOOL = 3;
+  private static final int E_CHAR = 4;
+  private static final int E_INT = 5;
+  private static final int E_REAL = 6;
+  private static final int E_STRING = 7;
+  private static final int E_EMPTYSET = 8;
+  private static final int E_BIGINT = 9;
+
+  /**
+   * Determine the interface file corresponding to the given source file.
+   *
+   * @param source
+   * @return
+   */
+  public static File interfaceFile(File source) {
+    String path = source.getPath();
+    if (path.endsWith(".wyjs")) {
+      path = path.substring(0, path.length() - 5);
+    }
+    return new File(path + EXTENSION);
+  }
+
+  /**
+   * Determine whether a module can be described by an interface. Constants
+   * whose values are not simple literals or references to other constants
+   * are not summarised, so modules containing them must be loaded from
+   * source.
+   *
+   * @param module
+   * @return
+   */
+  public static boolean isSupported(Module module) {
+    for (Decl d : module.declarations) {
+      if (d instanceof ConstDecl && !isSupported(((ConstDecl) d).constant)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isSupported(Expr e) {
+    if (e != null && e.getClass() == Expr.Variable.class) {
+      return true;
+    } else if (e != null && e.getClass() == Expr.Constant.class) {
+      Object v = ((Expr.Constant) e).value;
+      return v == null || v instanceof Boolean || v instanceof Character
+          || v instanceof Integer || v instanceof BigInteger
+          || v instanceof Double
+          || v instanceof String
+          || (v instanceof HashSet && ((HashSet<?>) v).isEmpty());
+    }
+    return false;
+  }
+
+  /**
+   * Write the interface of a module, which must have been resolved, to the
+   * interface file alongside its source. If the module cannot be described
+   * by an interface, then any existing interface file is removed instead.
+   *
+   * @param module
+   * @throws IOException
+   */
+  public static void write(Module module) throws IOException {
+    File source = new File(module.filename);
+    File file = interfaceFile(source);
+
+    if (!isSupported(module)) {
+      file.delete();
+      return;
+    }
+
+    DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+            file)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeShort(VERSION);
+      out.writeLong(source.length());
+      out.writeLong(source.lastModified());
+      writeModuleID(module.id(), out);
+
+      int count = 0;
+      for (Decl d : module.declarations) {
+        if (!(d instanceof Module.ImportDecl)) {
+          count++;
+        }
+      }
+      out.writeInt(count);
+
+      for (Decl d : module.declarations) {
+        if (d instanceof ConstDecl) {
+          ConstDecl cd = (ConstDecl) d;
+          out.writeByte(CONSTANT);
+          out.writeByte(modifiers(cd.modifiers));
+          out.writeUTF(cd.name);
+          writeSource(cd, out);
+          writeExpr(cd.constant, out);
+        } else if (d instanceof TypeDecl) {
+          TypeDecl td = (TypeDecl) d;
+          out.writeByte(TYPE);
+          out.writeByte(modifiers(td.modifiers));
+          out.writeUTF(td.name);
+          writeSource(td, out);
+          writeType(td.type, out);
+        } else if (d instanceof FunDecl) {
+          FunDecl fd = (FunDecl) d;
+          out.writeByte(FUNCTION);
+          out.writeByte(modifiers(fd.modifiers));
+          out.writeUTF(fd.name);
+          writeSource(fd, out);
+          writeType(fd.ret, out);
+          out.writeInt(fd.parameters.size());
+          for (Parameter p : fd.parameters) {
+            out.writeUTF(p.name);
+            writeSource(p, out);
+            writeType(p.type, out);
+          }
+        }
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Determine whether the given interface file is up to date with respect
+   * to its source file.
+   *
+   * @param file
+   * @param source
+   * @return
+   */
+  public static boolean isCurrent(File file, File source) {
+    if (!file.exists()) {
+      return false;
+    }
+    try {
+      DataInputStream in =
+          new DataInputStream(new BufferedInputStream(new FileInputStream(
+              file)));
+      try {
+        return in.readInt() == MAGIC && in.readShort() == VERSION
+            && in.readLong() == source.length()
+            && in.readLong() == source.lastModified();
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Read the module described by the given interface file. The module's
+   * filename is that of the source file, so that errors are reported
+   * against it.
+   *
+   * @param file
+   * @param source
+   * @return
+   * @throws IOException
+   */
+  public static Module read(File file, File source) throws IOException {
+    DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+        throw new IOException("invalid module interface: " + file);
+      }
+      in.readLong();
+      in.readLong();
+      ModuleID mid = readModuleID(in);
+
+      int count = in.readInt();
+      ArrayList<Decl> decls = new ArrayList<Decl>(count);
+      for (int i = 0; i != count; ++i) {
+        int kind = in.readByte();
+        List<Modifier> modifiers = modifiers(in.readByte());
+        String name = readName(in);
+        Attribute[] attributes = readSource(in);
+        switch (kind) {
+        case CONSTANT:
+          decls.add(new ConstDecl(modifiers, readExpr(in), name, attributes));
+          break;
+        case TYPE:
+          decls.add(new TypeDecl(modifiers, readType(in), name, attributes));
+          break;
+        case FUNCTION:
+          UnresolvedType ret = readType(in);
+          int nparams = in.readInt();
+          ArrayList<Parameter> params = new ArrayList<Parameter>(nparams);
+          for (int j = 0; j != nparams; ++j) {
+            String pname = readName(in);
+            Attribute[] pattributes = readSource(in);
+            params.add(new Parameter(readType(in), pname, pattributes));
+          }
+          decls.add(new FunDecl(modifiers, name, ret, params, Collections
+              .<Stmt> emptyList(), attributes));
+          break;
+        default:
+          throw new IOException("invalid module interface: " + file);
+        }
+      }
+
+      return new Module(mid, source.getPath(), decls);
+    } finally {
+      in.close();
+    }
+  }
+
+  private static int modifiers(List<Modifier> modifiers) {
+    int flags = 0;
+    for (Modifier m : modifiers) {
+      if (m instanceof Modifier.Public) {
+        flags |= PUBLIC;
+      } else if (m instanceof Modifier.Extern) {
+        flags |= EXTERN;
+      }
+    }
+    return flags;
+  }
+
+  private static List<Modifier> modifiers(int flags) {
+    ArrayList<Modifier> modifiers = new ArrayList<Modifier>();
+    if ((flags & PUBLIC) != 0) {
+      modifiers.add(Modifier.PUBLIC);
+    }
+    if ((flags & EXTERN) != 0) {
+      modifiers.add(Modifier.EXTERN);
+    }
+    return modifiers;
+  }
+
+  private static void writeModuleID(ModuleID mid, DataOutputStream out)
+      throws IOException {
+    PkgID pkg = mid.pkg();
+    out.writeShort(pkg.size());
+    for (int i = 0; i != pkg.size(); ++i) {
+      out.writeUTF(pkg.get(i));
+    }
+    out.writeUTF(mid.module());
+  }
+
+  private static ModuleID readModuleID(DataInputStream in) throws IOException {
+    int size = in.readShort();
+    String[] pkg = new String[size];
+    for (int i = 0; i != size; ++i) {
+      pkg[i] = in.readUTF();
+    }
+    return new ModuleID(new PkgID(pkg), in.readUTF());
+  }
+
+  /**
+   * Write a string of any length. Unlike writeUTF(), which is limited to 64KB,
+   * the string's encoding is preceded by its length in bytes.
+   */
+  private static void writeString(String s, DataOutputStream out)
+      throws IOException {
+    byte[] bytes = s.getBytes("UTF8");
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      throw new IOException("invalid module interface");
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, "UTF8");
+  }
+
+  /**
+   * Read a name, which is interned so that it is shared with every other use
+   * of the same name.
+   */
+  private static String readName(DataInputStream in) throws IOException {
+    return Symbols.intern(in.readUTF());
+  }
+
+  /**
+   * Write the source position of an element, if it has one, followed by the
+   * module it was resolved to, if any.
+   */
+  private static void writeSource(SyntacticElement e, DataOutputStream out)
+      throws IOException {
+    Attribute.Source source = e.attribute(Attribute.Source.class);
+    if (source == null) {
+      out.writeInt(-1);
+    } else {
+      out.writeInt(source.start);
+      out.writeInt(source.end);
+    }
+
+    Attribute.Module module = e.attribute(Attribute.Module.class);
+    if (module == null) {
+      out.writeBoolean(false);
+    } else {
+      out.writeBoolean(true);
+      writeModuleID(module.module, out);
+    }
+  }
+
+  private static Attribute[] readSource(DataInputStream in) throws IOException {
+    ArrayList<Attribute> attributes = new ArrayList<Attribute>(2);
+    int start = in.readInt();
+    if (start >= 0) {
+      attributes.add(new Attribute.Source(start, in.readInt()));
+    }
+    if (in.readBoolean()) {
+      attributes.add(new Attribute.Module(readModuleID(in)));
+    }
+    return attributes.toArray(new Attribute[attributes.size()]);
+  }
+
+  private static void writeExpr(Expr e, DataOutputStream out)
+      throws IOException {
+    if (e instanceof Expr.Variable) {
+      out.writeByte(E_VARIABLE);
+      out.writeUTF(((Expr.Variable) e).var);
+    } else {
+      Object v = ((Expr.Constant) e).value;
+      if (v == null) {
+        out.writeByte(E_NULL);
+      } else if (v instanceof Boolean) {
+        out.writeByte(E_BOOL);
+        out.writeBoolean((Boolean) v);
+      } else if (v instanceof Character) {
+        out.writeByte(E_CHAR);
+        out.writeChar((Character) v);
+      } else if (v instanceof Integer) {
+        out.writeByte(E_INT);
+        out.writeInt((Integer) v);
+      } else if (v instanceof BigInteger) {
+        out.writeByte(E_BIGINT);
+        writeString(v.toString(), out);
+      } else if (v instanceof Double) {
+        out.writeByte(E_REAL);
+        out.writeDouble((Double) v);
+      } else if (v instanceof String) {
+        out.writeByte(E_STRING);
+        writeString((String) v, out);
+      } else {
+        out.writeByte(E_EMPTYSET);
+      }
+    }
+    writeSource(e, out);
+  }
+
+  private static Expr readExpr(DataInputStream in) throws IOException {
+    int kind = in.readByte();
+    if (kind == E_VARIABLE) {
+      String var = readName(in);
+      return new Expr.Variable(var, readSource(in));
+    }
+
+    Object value;
+    switch (kind) {
+    case E_NULL:
+      value = null;
+      break;
+    case E_BOOL:
+      value = in.readBoolean();
+      break;
+    case E_CHAR:
+      value = in.readChar();
+      break;
+    case E_INT:
+      value = in.readInt();
+      break;
+    case E_BIGINT:
+      value = new BigInteger(readString(in));
+      break;
+    case E_REAL:
+      value = in.readDouble();
+      break;
+    case E_STRING:
+      value = readString(in);
+      break;
+    case E_EMPTYSET:
+      value = new HashSet<Object>();
+      break;
+    default:
+      throw new IOException("invalid module interface");
+    }
+    return new Expr.Constant(value, readSource(in));
+  }
+
+  private static void writeType(UnresolvedType t, DataOutputStream out)
+      throws IOException {
+    if (t instanceof UnresolvedType.Any) {
+      out.writeByte(T_ANY);
+    } else if (t instanceof UnresolvedType.Void) {
+      out.writeByte(T_VOID);
+    } else if (t instanceof UnresolvedType.Null) {
+      out.writeByte(T_NULL);
+    } else if (t instanceof UnresolvedType.Existential) {
+      out.writeByte(T_EXISTENTIAL);
+    } else if (t instanceof UnresolvedType.Bool) {
+      out.writeByte(T_BOOL);
+    } else if (t instanceof UnresolvedType.Int) {
+      out.writeByte(T_INT);
+    } else if (t instanceof UnresolvedType.Real) {
+      out.writeByte(T_REAL);
+    } else if (t instanceof UnresolvedType.Char) {
+      out.writeByte(T_CHAR);
+    } else if (t instanceof UnresolvedType.Strung) {
+      out.writeByte(T_STRING);
+    } else if (t instanceof UnresolvedType.Named) {
+      out.writeByte(T_NAMED);
+      out.writeUTF(((UnresolvedType.Named) t).name);
+    } else if (t instanceof UnresolvedType.List) {
+      out.writeByte(T_LIST);
+      writeType(((UnresolvedType.List) t).element, out);
+    } else if (t instanceof UnresolvedType.Set) {
+      out.writeByte(T_SET);
+      writeType(((UnresolvedType.Set) t).element, out);
+    } else if (t instanceof UnresolvedType.Dictionary) {
+      UnresolvedType.Dictionary dt = (UnresolvedType.Dictionary) t;
+      out.writeByte(T_DICTIONARY);
+      writeType(dt.key, out);
+      writeType(dt.value, out);
+    } else if (t instanceof UnresolvedType.Union) {
+      UnresolvedType.Union ut = (UnresolvedType.Union) t;
+      out.writeByte(T_UNION);
+      out.writeInt(ut.bounds.size());
+      for (UnresolvedType b : ut.bounds) {
+        writeType(b, out);
+      }
+    } else if (t instanceof UnresolvedType.Record) {
+      UnresolvedType.Record rt = (UnresolvedType.Record) t;
+      out.writeByte(T_RECORD);
+      out.writeInt(rt.types.size());
+      for (Map.Entry<String, UnresolvedType> e : rt.types.entrySet()) {
+        out.writeUTF(e.getKey());
+        writeType(e.getValue(), out);
+      }
+    } else if (t instanceof UnresolvedType.Tuple) {
+      UnresolvedType.Tuple tt = (UnresolvedType.Tuple) t;
+      out.writeByte(T_TUPLE);
+      out.writeInt(tt.types.size());
+      for (UnresolvedType e : tt.types) {
+        writeType(e, out);
+      }
+    } else if (t instanceof UnresolvedType.Fun) {
+      UnresolvedType.Fun ft = (UnresolvedType.Fun) t;
+      out.writeByte(T_FUN);
+      writeType(ft.ret, out);
+      out.writeInt(ft.paramTypes.size());
+      for (UnresolvedType p : ft.paramTypes) {
+        writeType(p, out);
+      }
+    } else {
+      throw new IllegalArgumentException("unknown type encountered: " + t);
+    }
+    writeSource(t, out);
+  }
+
+  private static UnresolvedType readType(DataInputStream in)
+      throws IOException {
+    int kind = in.readByte();
+    switch (kind) {
+    case T_ANY:
+      return new UnresolvedType.Any(readSource(in));
+    case T_VOID:
+      return new UnresolvedType.Void(readSource(in));
+    case T_NULL:
+      return new UnresolvedType.Null(readSource(in));
+    case T_EXISTENTIAL:
+      return new UnresolvedType.Existential(readSource(in));
+    case T_BOOL:
+      return new UnresolvedType.Bool(readSource(in));
+    case T_INT:
+      return new UnresolvedType.Int(readSource(in));
+    case T_REAL:
+      return new UnresolvedType.Real(readSource(in));
+    case T_CHAR:
+      return new UnresolvedType.Char(readSource(in));
+    case T_STRING:
+      return new UnresolvedType.Strung(readSource(in));
+    case T_NAMED: {
+      String name = readName(in);
+      return new UnresolvedType.Named(name, readSource(in));
+    }
+    case T_LIST: {
+      UnresolvedType element = readType(in);
+      return new UnresolvedType.List(element, readSource(in));
+    }
+    case T_SET: {
+      UnresolvedType element = readType(in);
+      return new UnresolvedType.Set(element, readSource(in));
+    }
+    case T_DICTIONARY: {
+      UnresolvedType key = readType(in);
+      UnresolvedType value = readType(in);
+      return new UnresolvedType.Dictionary(key, value, readSource(in));
+    }
+    case T_UNION: {
+      int size = in.readInt();
+      ArrayList<UnresolvedType.NonUnion> bounds =
+          new ArrayList<UnresolvedType.NonUnion>(size);
+      for (int i = 0; i != size; ++i) {
+        bounds.add((UnresolvedType.NonUnion) readType(in));
+      }
+      return new UnresolvedType.Union(bounds, readSource(in));
+    }
+    case T_RECORD: {
+      int size = in.readInt();
+      HashMap<String, UnresolvedType> types =
+          new HashMap<String, UnresolvedType>();
+      for (int i = 0; i != size; ++i) {
+        String field = readName(in);
+        types.put(field, readType(in));
+      }
+      return new UnresolvedType.Record(types, readSource(in));
+    }
+    case T_TUPLE: {
+      int size = in.readInt();
+      ArrayList<UnresolvedType> types = new ArrayList<UnresolvedType>(size);
+      for (int i = 0; i != size; ++i) {
+        types.add(readType(in));
+      }
+      return new UnresolvedType.Tuple(types, readSource(in));
+    }
+    case T_FUN: {
+      UnresolvedType ret = readType(in);
+      int size = in.readInt();
+      ArrayList<UnresolvedType> params = new ArrayList<UnresolvedType>(size);
+      for (int i = 0; i != size; ++i) {
+        params.add(readType(in));
+      }
+      return new UnresolvedType.Fun(ret, params, readSource(in));
+    }
+    }
+    throw new IOException("invalid module interface");
+  }
+}
@@ -19,13 +19,21 @@
 package wyjs;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
@@ -46,6 +54,11 @@ import wyjs.util.ResolveError;
  * responsible for finding whiley modules on the WHILEYPATH, and retaining
  * information about them which can be used to compile other whiley files.
  * 
+ * Names may be resolved from several threads at once. Each module on the
+ * WHILEYPATH is still loaded exactly once: the first thread to ask for it
+ * loads it, and any other thread asking for it meanwhile waits until its
+ * skeleton is available.
+ * 
  * @author djp
  * 
  */
@@ -63,15 +76,76 @@ public class ModuleLoader {
    * process. Once a module has been entered into the moduletable, it will not
    * be loaded again.
    */
-  private HashMap<ModuleID, Module> moduletable =
-      new HashMap<ModuleID, Module>();
+  private final ConcurrentHashMap<ModuleID, Module> moduletable =
+      new ConcurrentHashMap<ModuleID, Module>();
 
   /**
    * A map from module names in the form "xxx.yyy" to skeleton objects. This
    * is required to permit preregistration of source files during compilation.
    */
-  private HashMap<ModuleID, Skeleton> skeletontable =
-      new HashMap<ModuleID, Skeleton>();
+  private final ConcurrentHashMap<ModuleID, Skeleton> skeletontable =
+      new ConcurrentHashMap<ModuleID, Skeleton>();
+
+  /**
+   * The loads map holds the modules which are currently being loaded. The
+   * thread loading a module adds it to this map, and removes it once loading
+   * has finished, at which point the module is in the skeletontable (unless
+   * loading failed).
+   */
+  private final ConcurrentHashMap<ModuleID, Load> loads =
+      new ConcurrentHashMap<ModuleID, Load>();
+
+  /**
+   * A Load is the result of loading a module, which other threads can wait
+   * for. It is finished as soon as the module's skeleton is known, which is
+   * before the module's own names are resolved. A thread waiting for a load
+   * is therefore never waiting for name resolution to finish, so two threads
+   * each loading a module which uses the other cannot wait for each other.
+   */
+  private static final class Load {
+
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private volatile Skeleton skeleton;
+    private volatile Throwable error;
+
+    /**
+     * Finish this load, with either the loaded skeleton or the error which
+     * prevented it from loading. Only the first call has any effect.
+     * 
+     * @param skeleton
+     * @param error
+     */
+    public synchronized void finish(Skeleton skeleton, Throwable error) {
+      if (finished.getCount() > 0) {
+        this.skeleton = skeleton;
+        this.error = error;
+        finished.countDown();
+      }
+    }
+
+    public Skeleton get() throws ResolveError {
+      boolean interrupted = false;
+      while (true) {
+        try {
+          finished.await();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      if (error instanceof ResolveError) {
+        throw (ResolveError) error;
+      } else if (error instanceof RuntimeException) {
+        throw (RuntimeException) error;
+      } else if (error instanceof Error) {
+        throw (Error) error;
+      }
+      return skeleton;
+    }
+  }
 
   /**
    * A Package object contains information about a particular package,
@@ -97,6 +171,35 @@ public class ModuleLoader {
      * those which come first have higher priority.
      */
     public final ArrayList<File> locations = new ArrayList<File>();
+
+    /**
+     * The exports map maps each name declared by a module in this package to
+     * the first module (in the iteration order of modules) declaring it. It
+     * is built lazily, a module at a time, as names are looked up.
+     */
+    public final HashMap<String, String> exports = new HashMap<String, String>();
+
+    /**
+     * The modules which have not yet been added to the exports map, or null
+     * if none have been added yet.
+     */
+    public Iterator<String> unindexed;
+
+    /**
+     * The thread which is extending the exports map, or null if there is
+     * none. Looking up a name whilst this is happening (either on another
+     * thread, or because loading a module in this package resolves names in
+     * this package) cannot use the map.
+     */
+    public Thread indexer;
+
+    public void add(String module) {
+      if (modules.add(module)) {
+        // the iteration order of modules may have changed.
+        exports.clear();
+        unindexed = null;
+      }
+    }
   }
 
   /**
@@ -121,14 +224,80 @@ public class ModuleLoader {
     }
 
     public abstract boolean hasName(String name);
+
+    /**
+     * Get the names declared by this module.
+     * 
+     * @return
+     */
+    public abstract Set<String> names();
+  }
+
+  /**
+   * An Archive is an open jar file on the whileypath, along with an index of
+   * the packages it contains. The index is built once, when the archive is
+   * first used, and the archive remains open until the loader is closed.
+   */
+  private static final class Archive {
+
+    public final JarFile file;
+
+    /**
+     * The packages map maps each package in the archive to the names of the
+     * modules it contains. Every enclosing package of a package containing
+     * modules is also present, though it may contain no modules itself.
+     */
+    public final HashMap<PkgID, ArrayList<String>> packages =
+        new HashMap<PkgID, ArrayList<String>>();
+
+    public Archive(JarFile file) {
+      this.file = file;
+
+      for (Enumeration<JarEntry> e = file.entries(); e.hasMoreElements();) {
+        String entryName = e.nextElement().getName();
+        if (entryName.endsWith(".wyjs")) {
+          // now strip off ".wyjs"
+          entryName = entryName.substring(0, entryName.length() - 5);
+          String[] path = entryName.split("/");
+          String[] pkg = new String[path.length - 1];
+          System.arraycopy(path, 0, pkg, 0, pkg.length);
+          add(new PkgID(pkg), path[path.length - 1]);
+        }
+      }
+    }
+
+    private void add(PkgID pkg, String module) {
+      ArrayList<String> modules = packages.get(pkg);
+      if (modules == null) {
+        modules = new ArrayList<String>();
+        packages.put(pkg, modules);
+      }
+      modules.add(module);
+
+      for (int i = 0; i < pkg.size(); ++i) {
+        PkgID p = pkg.subpkg(0, i);
+        if (!packages.containsKey(p)) {
+          packages.put(p, new ArrayList<String>());
+        }
+      }
+    }
   }
 
+  /**
+   * The archives map maps each jar file on the whileypath which has been
+   * used to its Archive. Jar files which could not be opened are mapped to
+   * null, so they are not tried again.
+   */
+  private final HashMap<File, Archive> archives = new HashMap<File, Archive>();
+
   /**
    * The packages map maps each package to its PackageInfo record. This means
-   * we can quickly identify packages will have already been loaded.
+   * we can quickly identify packages will have already been loaded. The map
+   * may be read without holding the loader's lock, but the packages in it
+   * are only added, and their contents only accessed, whilst holding it.
    */
-  private final HashMap<PkgID, Package> packages =
-      new HashMap<PkgID, Package>();
+  private final ConcurrentHashMap<PkgID, Package> packages =
+      new ConcurrentHashMap<PkgID, Package>();
 
   /**
    * The failed packages set is a collection of packages which have been
@@ -137,6 +306,29 @@ public class ModuleLoader {
    */
   private final HashSet<PkgID> failedPackages = new HashSet<PkgID>();
 
+  /**
+   * The registered set contains those modules which were supplied for
+   * compilation, rather than loaded from the whileypath. They are discarded
+   * when the loader is refreshed.
+   */
+  private final HashSet<ModuleID> registered = new HashSet<ModuleID>();
+
+  /**
+   * The timestamps map records the last modification time of every file
+   * (either a module source file or a jar file) which has been read by this
+   * loader. This is used to determine whether a long-lived loader is stale.
+   */
+  private final ConcurrentHashMap<File, Long> timestamps =
+      new ConcurrentHashMap<File, Long>();
+
+  /**
+   * The listings map records the modules found in every package directory
+   * which has been searched by this loader. This is used to determine
+   * whether a long-lived loader is stale.
+   */
+  private final HashMap<File, HashSet<String>> listings =
+      new HashMap<File, HashSet<String>>();
+
   /**
    * The logger is used to log messages from the module loader.
    */
@@ -152,6 +344,15 @@ public class ModuleLoader {
     this.whileypath = new ArrayList<String>(whileypath);
   }
 
+  /**
+   * Get the whileypath searched by this module loader.
+   * 
+   * @return
+   */
+  public List<String> whileypath() {
+    return Collections.unmodifiableList(whileypath);
+  }
+
   /**
    * Set the logger for this module loader.
    * 
@@ -176,16 +377,143 @@ public class ModuleLoader {
     }
   }
 
-  public void preregister(Skeleton skeleton, String filename) {
+  public synchronized void preregister(Skeleton skeleton, String filename) {
+    registered.add(skeleton.id());
     skeletontable.put(skeleton.id(), skeleton);
     File parent = new File(filename).getParentFile();
     addPackageItem(skeleton.id().pkg(), skeleton.id().module(), parent);
   }
 
-  public void register(Module module) {
+  /**
+   * Register a module which is being compiled. This may be called from
+   * several threads at once.
+   * 
+   * @param module
+   */
+  public synchronized void register(Module module) {
+    registered.add(module.id());
     moduletable.put(module.id(), module);
   }
 
+  /**
+   * Get the modules which have been loaded from the whileypath, rather than
+   * registered for compilation.
+   * 
+   * @return
+   */
+  public synchronized List<Module> libraries() {
+    ArrayList<Module> modules = new ArrayList<Module>();
+    for (Module m : moduletable.values()) {
+      if (!registered.contains(m.id())) {
+        modules.add(m);
+      }
+    }
+    return modules;
+  }
+
+  /**
+   * Prepare this loader to be reused for another compilation. Any registered
+   * modules are discarded. If any file read by this loader has since been
+   * modified, or any package directory has gained or lost modules, then
+   * everything loaded so far is discarded as well, since the remaining
+   * modules may have been resolved against it. Otherwise, the loaded modules
+   * and package information are retained.
+   * 
+   * Note that library modules are not checked against the registered modules
+   * they were resolved against.
+   */
+  public synchronized void refresh() {
+    boolean stale = false;
+
+    for (Map.Entry<File, Long> e : timestamps.entrySet()) {
+      if (e.getKey().lastModified() != e.getValue()) {
+        stale = true;
+        break;
+      }
+    }
+
+    if (!stale) {
+      for (Map.Entry<File, HashSet<String>> e : listings.entrySet()) {
+        if (!e.getValue().equals(listModules(e.getKey()))) {
+          stale = true;
+          break;
+        }
+      }
+    }
+
+    if (stale) {
+      close();
+      moduletable.clear();
+      skeletontable.clear();
+      loads.clear();
+      packages.clear();
+      timestamps.clear();
+      listings.clear();
+    } else {
+      boolean preregistered = false;
+      for (ModuleID mid : registered) {
+        moduletable.remove(mid);
+        preregistered |= skeletontable.remove(mid) != null;
+      }
+      if (preregistered) {
+        // preregistered modules were added to the package information, but
+        // may not exist on disk.
+        packages.clear();
+      }
+      // the exports of registered modules may have changed.
+      for (Package p : packages.values()) {
+        p.exports.clear();
+        p.unindexed = null;
+      }
+      loads.clear();
+    }
+
+    registered.clear();
+    failedPackages.clear();
+  }
+
+  /**
+   * Close any jar files opened by this loader. The loader may still be used
+   * afterwards, in which case they are opened again as needed.
+   */
+  public synchronized void close() {
+    for (Archive archive : archives.values()) {
+      if (archive != null) {
+        try {
+          archive.file.close();
+        } catch (IOException e) {
+          // nothing we can do about this.
+        }
+      }
+    }
+    archives.clear();
+  }
+
+  /**
+   * Open the source of a module which was loaded by this loader. The source
+   * may be a file, or an entry in a jar file.
+   * 
+   * @param filename The filename of the module.
+   * @return
+   * @throws IOException
+   */
+  public synchronized InputStream openSource(String filename)
+      throws IOException {
+    int idx = filename.indexOf(".jar!" + File.separatorChar);
+    if (idx == -1) {
+      return new FileInputStream(filename);
+    }
+
+    Archive archive = openArchive(new File(filename.substring(0, idx + 4)));
+    String entryName =
+        filename.substring(idx + 6).replace(File.separatorChar, '/');
+    JarEntry entry = archive == null ? null : archive.file.getJarEntry(entryName);
+    if (entry == null) {
+      throw new IOException("unable to find " + filename);
+    }
+    return archive.file.getInputStream(entry);
+  }
+
   /**
    * This methods attempts to resolve the correct package for a named item,
    * given a list of imports. Resolving the correct package may require
@@ -205,20 +533,9 @@ public class ModuleLoader {
         if (!isPackage(pkg)) {
           continue; // sanity check
         }
-        Package p = resolvePackage(pkg);
-
-        for (String n : p.modules) {
-          try {
-            ModuleID mid = new ModuleID(pkg, n);
-            Skeleton mi = loadSkeleton(mid);
-            if (mi.hasName(name)) {
-              return mid;
-            }
-          } catch (ResolveError rex) {
-            // ignore. This indicates we simply couldn't resolve
-            // this module. For example, if it wasn't a whiley class
-            // file.
-          }
+        String module = lookupExport(pkg, resolvePackage(pkg), name);
+        if (module != null) {
+          return new ModuleID(pkg, module);
         }
       } else if (pkg.size() > 0) {
         try {
@@ -240,6 +557,86 @@ public class ModuleLoader {
     throw new ResolveError("name not found: " + name);
   }
 
+  /**
+   * Find the first module in the given package which declares the given
+   * name. The package's exports map is consulted first, and extended (by
+   * loading further modules from the package) only if the name is not yet
+   * known.
+   * 
+   * @param pkg
+   * @param p
+   * @param name
+   * @return The module's name, or null if no module in the package declares
+   *         the name.
+   */
+  private String lookupExport(PkgID pkg, Package p, String name) {
+    ArrayList<String> modules = null;
+    synchronized (this) {
+      String module = p.exports.get(name);
+      if (module != null) {
+        return module;
+      }
+
+      if (p.indexer != null) {
+        // Another thread is extending the exports map, or loading a module
+        // in this package has led back here, so fall back to checking each
+        // module in turn.
+        modules = new ArrayList<String>(p.modules);
+      } else {
+        if (p.unindexed == null) {
+          p.unindexed = new ArrayList<String>(p.modules).iterator();
+        }
+        p.indexer = Thread.currentThread();
+      }
+    }
+
+    if (modules != null) {
+      for (String n : modules) {
+        try {
+          if (loadSkeleton(new ModuleID(pkg, n)).hasName(name)) {
+            return n;
+          }
+        } catch (ResolveError rex) {
+          // ignore, as below.
+        }
+      }
+      return null;
+    }
+
+    try {
+      while (true) {
+        String n;
+        synchronized (this) {
+          if (p.unindexed == null || !p.unindexed.hasNext()) {
+            return null;
+          }
+          n = p.unindexed.next();
+        }
+        try {
+          Skeleton mi = loadSkeleton(new ModuleID(pkg, n));
+          synchronized (this) {
+            for (String declared : mi.names()) {
+              if (!p.exports.containsKey(declared)) {
+                p.exports.put(declared, n);
+              }
+            }
+            if (mi.hasName(name)) {
+              return p.exports.get(name);
+            }
+          }
+        } catch (ResolveError rex) {
+          // ignore. This indicates we simply couldn't resolve
+          // this module. For example, if it wasn't a whiley class
+          // file.
+        }
+      }
+    } finally {
+      synchronized (this) {
+        p.indexer = null;
+      }
+    }
+  }
+
   public Module loadModule(ModuleID module) throws ResolveError {
     Module m = moduletable.get(module);
     if (m != null) {
@@ -276,7 +673,37 @@ public class ModuleLoader {
       return m; // module was previously loaded and cached
     }
 
-    // module has not been previously loaded.
+    // module has not been previously loaded, but may be being loaded.
+    Load load = new Load();
+    Load existing = loads.putIfAbsent(module, load);
+    if (existing != null) {
+      return existing.get();
+    }
+
+    try {
+      // check again, in case another thread finished loading it meanwhile.
+      skeleton = skeletontable.get(module);
+      if (skeleton == null) {
+        skeleton = load(module);
+      }
+      load.finish(skeleton, null);
+      return skeleton;
+    } catch (ResolveError e) {
+      load.finish(null, e);
+      throw e;
+    } catch (RuntimeException e) {
+      load.finish(null, e);
+      throw e;
+    } catch (Error e) {
+      load.finish(null, e);
+      throw e;
+    } finally {
+      loads.remove(module, load);
+    }
+  }
+
+  private Skeleton load(ModuleID module) throws ResolveError {
+    Skeleton skeleton;
     Package pkg = resolvePackage(module.pkg());
     // check for error
     if (pkg == null) {
@@ -307,13 +734,36 @@ public class ModuleLoader {
   private Module loadModule(ModuleID module, Package pkg) throws ResolveError,
       IOException {
     String filename = module.fileName();
+    ArrayList<File> locations;
+    synchronized (this) {
+      locations = new ArrayList<File>(pkg.locations);
+    }
+
+    for (File location : locations) {
+      if (location.getPath().endsWith(".jar")) {
+        Archive archive;
+        synchronized (this) {
+          // the archive may have been closed since the package was found.
+          archive = openArchive(location);
+        }
+        String entryName = filename.replace(File.separatorChar, '/') + ".wyjs";
+        JarEntry entry =
+            archive == null ? null : archive.file.getJarEntry(entryName);
+        if (entry != null) {
+          return readJarEntry(module, archive, entry);
+        }
+        continue;
+      }
 
-    for (File location : pkg.locations) {
       File wyjsFile = new File(location.getPath(), filename + ".wyjs");
 
       if (wyjsFile.exists()) {
-        // Here, there is no sourcefile, but there is a classfile.
-        // So, no need to compile --- just load the class file!
+        File interfaceFile = ModuleInterface.interfaceFile(wyjsFile);
+        if (ModuleInterface.isCurrent(interfaceFile, wyjsFile)) {
+          // The module was compiled since the source file last changed, so
+          // its interface can be read instead of the source.
+          return readInterfaceFile(module, interfaceFile, wyjsFile);
+        }
         return readWhileyFile(module, wyjsFile);
       }
     }
@@ -330,6 +780,15 @@ public class ModuleLoader {
   private Package resolvePackage(PkgID pkg) throws ResolveError {
     // First, check if we have already resolved this package.
     Package pkgInfo = packages.get(pkg);
+    if (pkgInfo != null) {
+      return pkgInfo;
+    }
+    return searchPackage(pkg);
+  }
+
+  private synchronized Package searchPackage(PkgID pkg) throws ResolveError {
+    // check again, since another thread may have resolved it meanwhile.
+    Package pkgInfo = packages.get(pkg);
 
     if (pkgInfo != null) {
       return pkgInfo;
@@ -353,33 +812,26 @@ public class ModuleLoader {
         }
       } else {
         // this is a jar file
-        try {
-          JarFile jf = new JarFile(dir);
-          for (Enumeration<JarEntry> e = jf.entries(); e.hasMoreElements();) {
-            JarEntry je = e.nextElement();
-            String entryName = je.getName();
-            if (entryName.endsWith(".wyjs")) {
-              // now strip off ".wyjs"
-              entryName = entryName.substring(0, entryName.length() - 5);
-              entryName = entryName.replace("/", ".");
-              // strip off package information
-              String pkgName = pathParent(entryName);
-              String moduleName = pathChild(entryName);
-
-              // now add to package map
-              addPackageItem(new PkgID(pkgName.split("\\.")), moduleName,
-                  new File(dir));
-            }
-          }
+        File jar = new File(dir);
+        Archive archive = openArchive(jar);
+        if (archive == null) {
+          // jarfile listed on classpath doesn't exist!
+          // So, silently ignore it (this is what javac does).
+          continue;
+        }
 
+        List<String> modules = archive.packages.get(pkg);
+        if (modules != null) {
+          for (String name : modules) {
+            addPackageItem(pkg, name, jar);
+          }
           pkgInfo = packages.get(pkg);
-          if (pkgInfo != null) {
-            return pkgInfo;
+          if (pkgInfo == null) {
+            // this package only encloses others.
+            pkgInfo = new Package();
+            packages.put(pkg, pkgInfo);
           }
-
-        } catch (IOException e) {
-          // jarfile listed on classpath doesn't exist!
-          // So, silently ignore it (this is what javac does).
+          return pkgInfo;
         }
       }
     }
@@ -388,6 +840,29 @@ public class ModuleLoader {
     throw new ResolveError("package not found: " + pkg);
   }
 
+  /**
+   * Get the archive for the given jar file, opening and indexing it if this
+   * hasn't already been done.
+   * 
+   * @param jar
+   * @return The archive, or null if the jar file could not be opened.
+   */
+  private Archive openArchive(File jar) {
+    if (archives.containsKey(jar)) {
+      return archives.get(jar);
+    }
+
+    timestamps.put(jar, jar.lastModified());
+    Archive archive = null;
+    try {
+      archive = new Archive(new JarFile(jar));
+    } catch (IOException e) {
+      // the archive doesn't exist or is unreadable.
+    }
+    archives.put(jar, archive);
+    return archive;
+  }
+
   /**
    * This traverses the directory tree, starting from dir, looking for class
    * or java files. There's probably a bug if the directory tree is cyclic!
@@ -398,17 +873,30 @@ public class ModuleLoader {
     }
 
     File f = new File(root + File.separatorChar + filepkg);
-    if (f.isDirectory()) {
-      for (String file : f.list()) {
+    HashSet<String> names = listModules(f);
+    listings.put(f, names);
+    for (String name : names) {
+      addPackageItem(pkg, name, new File(root));
+    }
+
+    return packages.get(pkg);
+  }
+
+  /**
+   * Determine the names of the modules whose source files are in the given
+   * directory. If the directory does not exist, then there are none.
+   */
+  private static HashSet<String> listModules(File dir) {
+    HashSet<String> names = new HashSet<String>();
+    if (dir.isDirectory()) {
+      for (String file : dir.list()) {
         if (file.endsWith(".wyjs")) {
           // strip off ".whiley" to get module name
-          String name = file.substring(0, file.length() - 5);
-          addPackageItem(pkg, name, new File(root));
+          names.add(file.substring(0, file.length() - 5));
         }
       }
     }
-
-    return packages.get(pkg);
+    return names;
   }
 
   /**
@@ -427,7 +915,7 @@ public class ModuleLoader {
     }
 
     // add the class in question
-    items.modules.add(name);
+    items.add(name);
 
     // now, add the location (if it wasn't already added)
     if (!items.locations.contains(pkgLocation)) {
@@ -446,14 +934,46 @@ public class ModuleLoader {
   }
 
   public Module readWhileyFile(ModuleID mid, File file) throws IOException {
+    timestamps.put(file, file.lastModified());
+    InputStream in = new FileInputStream(file);
+    try {
+      return readWhileyFile(mid, file.getPath(), in);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Read a module from an entry in a jar file. The module's filename has the
+   * form "xxx.jar!/yyy/zzz.wyjs".
+   */
+  private Module readJarEntry(ModuleID mid, Archive archive, JarEntry entry)
+      throws IOException {
+    String filename =
+        archive.file.getName() + "!" + File.separatorChar
+            + entry.getName().replace('/', File.separatorChar);
+    InputStream in = archive.file.getInputStream(entry);
+    try {
+      return readWhileyFile(mid, filename, in);
+    } finally {
+      in.close();
+    }
+  }
+
+  private Module readWhileyFile(ModuleID mid, String filename, InputStream in)
+      throws IOException {
     long time = System.currentTimeMillis();
-    String filename = file.getPath();
 
-    Lexer lexer = new Lexer(file.getPath());
-    Parser parser = new Parser(file.getPath(), lexer.scan());
+    Lexer lexer = new Lexer(filename, in);
+    Parser parser = new Parser(filename, lexer.stream());
     Module m = parser.read();
 
     skeletontable.put(mid, m);
+    // the module's names are known, so threads waiting for it can continue.
+    Load load = loads.get(mid);
+    if (load != null) {
+      load.finish(m, null);
+    }
 
     new NameResolution(this).resolve(m);
     ArrayList<Module> modules = new ArrayList<Module>();
@@ -467,6 +987,34 @@ public class ModuleLoader {
     return m;
   }
 
+  /**
+   * Read a module from its interface file. The module has already been
+   * resolved, so it is ready for use immediately.
+   * 
+   * @param mid
+   * @param file The interface file.
+   * @param source The source file from which the interface was generated.
+   * @return
+   * @throws IOException
+   */
+  public Module readInterfaceFile(ModuleID mid, File file, File source)
+      throws IOException {
+    long time = System.currentTimeMillis();
+    long modified = source.lastModified();
+
+    Module m = ModuleInterface.read(file, source);
+
+    timestamps.put(source, modified);
+    skeletontable.put(mid, m);
+
+    logger.logTimedMessage("Loaded " + file.getPath(),
+        System.currentTimeMillis() - time);
+
+    moduletable.put(mid, m);
+
+    return m;
+  }
+
   public String stripCase(String name) {
     int idx = name.indexOf('$');
     if (idx != -1) {
@@ -1,5 +1,6 @@
 package wyjs.ast;
 
+import java.io.IOException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -9,7 +10,7 @@ import wyjs.ast.stmt.JsStmt;
 import wyjs.ast.util.JsFormatter;
 import wyjs.ast.util.JsLists;
 
-public class JsBase implements JsNode {
+public class JsBase extends JsNode.Impl {
 
   // private final JsNode base;
   private final List<JsNode> base = new ArrayList<JsNode>();
@@ -24,8 +25,8 @@ public class JsBase implements JsNode {
     base.addAll(children);
   }
 
-  public String compile(JsFormatter ws) {
-    return JsLists.compile(base, ws);
+  public void compile(JsFormatter ws, Appendable out) throws IOException {
+    JsLists.compile(base, ws, out);
   }
 
   public void collectAssignments(Set<String> assignments) {
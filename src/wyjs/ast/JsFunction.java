@@ -1,5 +1,6 @@
 package wyjs.ast;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -23,7 +24,7 @@ import wyjs.ast.util.JsRegex;
  * 
  * @author Timothy Jones
  */
-public abstract class JsFunction implements JsNode {
+public abstract class JsFunction extends JsNode.Impl {
 
   private static final String fn = "function";
 
@@ -82,15 +83,23 @@ public abstract class JsFunction implements JsNode {
     }
   }
   
-  public String compile(JsFormatter ws) {
-    JsFormatter next = ws.next();
-    return fn
-        + (name == null ? ws.s : ws.ss + name)
-        + JsLists.compileParams(params, ws)
-        + ws.s
-        + "{"
-        + (body.isEmpty() ? ws.e : ws.ln + JsLists.compile(body, next) + ws.idt)
-        + "}";
+  public void compile(JsFormatter ws, Appendable out) throws IOException {
+    out.append(fn);
+    if (name == null) {
+      out.append(ws.s);
+    } else {
+      out.append(ws.ss).append(name);
+    }
+    JsLists.compileParams(params, ws, out);
+    out.append(ws.s).append("{");
+    if (body.isEmpty()) {
+      out.append(ws.e);
+    } else {
+      out.append(ws.ln);
+      JsLists.compile(body, ws.next(), out);
+      out.append(ws.idt);
+    }
+    out.append("}");
   }
 
   /**
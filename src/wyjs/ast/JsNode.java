@@ -1,5 +1,6 @@
 package wyjs.ast;
 
+import java.io.IOException;
 import java.util.Set;
 
 import wyjs.ast.util.JsFormatter;
@@ -8,6 +9,34 @@ public interface JsNode {
 
   public String compile(JsFormatter ws);
 
+  /**
+   * Write this node's Javascript to the given output. Nothing is buffered, so
+   * output is produced in a single pass over the tree.
+   * 
+   * @param ws The formatter to use.
+   * @param out Where to write the Javascript to.
+   */
+  public void compile(JsFormatter ws, Appendable out) throws IOException;
+
   public void collectAssignments(Set<String> assignments);
 
+  /**
+   * A base implementation of a node, where compiling to a string is done by
+   * writing to a string builder.
+   */
+  public abstract class Impl implements JsNode {
+
+    public String compile(JsFormatter ws) {
+      StringBuilder out = new StringBuilder();
+      try {
+        compile(ws, out);
+      } catch (IOException e) {
+        // a string builder never throws this.
+        throw new RuntimeException(e);
+      }
+      return out.toString();
+    }
+
+  }
+
 }
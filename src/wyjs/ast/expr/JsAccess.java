@@ -1,7 +1,9 @@
 package wyjs.ast.expr;
 
+import java.io.IOException;
 import java.util.Set;
 
+import wyjs.ast.JsNode;
 import wyjs.ast.expr.JsAssign.JsAssignable;
 import wyjs.ast.util.JsFormatter;
 import wyjs.ast.util.JsRegex;
@@ -11,7 +13,7 @@ import wyjs.ast.util.JsRegex;
  * 
  * @author Timothy Jones
  */
-public class JsAccess implements JsAssignable {
+public class JsAccess extends JsNode.Impl implements JsAssignable {
 
   private final JsExpr value;
   private final JsExpr prop;
@@ -63,9 +65,13 @@ public class JsAccess implements JsAssignable {
   }
 
   
-  public String compile(JsFormatter ws) {
-    return value.compile(ws) + (dot ? "." : "[") + prop.compile(ws)
-        + (dot ? "" : "]");
+  public void compile(JsFormatter ws, Appendable out) throws IOException {
+    value.compile(ws, out);
+    out.append(dot ? "." : "[");
+    prop.compile(ws, out);
+    if (!dot) {
+      out.append("]");
+    }
   }
 
   
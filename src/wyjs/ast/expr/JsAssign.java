@@ -1,7 +1,9 @@
 package wyjs.ast.expr;
 
+import java.io.IOException;
 import java.util.Set;
 
+import wyjs.ast.JsNode;
 import wyjs.ast.util.JsFormatter;
 
 /**
@@ -9,7 +11,7 @@ import wyjs.ast.util.JsFormatter;
  * 
  * @author Timothy Jones
  */
-public class JsAssign implements JsExpr {
+public class JsAssign extends JsNode.Impl implements JsExpr {
 
   private final JsAssignable lhs;
   private final JsExpr rhs;
@@ -24,8 +26,10 @@ public class JsAssign implements JsExpr {
   }
 
   
-  public String compile(JsFormatter ws) {
-    return lhs.compile(ws) + ws.s + "=" + ws.s + rhs.compile(ws);
+  public void compile(JsFormatter ws, Appendable out) throws IOException {
+    lhs.compile(ws, out);
+    out.append(ws.s).append("=").append(ws.s);
+    rhs.compile(ws, out);
   }
 
   
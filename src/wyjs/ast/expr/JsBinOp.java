@@ -1,7 +1,9 @@
 package wyjs.ast.expr;
 
+import java.io.IOException;
 import java.util.Set;
 
+import wyjs.ast.JsNode;
 import wyjs.ast.util.JsFormatter;
 
 /**
@@ -73,7 +75,7 @@ public enum JsBinOp {
    * 
    * @author Timothy Jones
    */
-  private class BIN_OP implements JsExpr {
+  private class BIN_OP extends JsNode.Impl implements JsExpr {
 
     private final JsExpr lhs, rhs;
 
@@ -87,9 +89,10 @@ public enum JsBinOp {
     }
 
     
-    public String compile(JsFormatter ws) {
-      return lhs.compile(ws) + ws.s + JsBinOp.this.compile() + ws.s
-          + rhs.compile(ws);
+    public void compile(JsFormatter ws, Appendable out) throws IOException {
+      lhs.compile(ws, out);
+      out.append(ws.s).append(JsBinOp.this.compile()).append(ws.s);
+      rhs.compile(ws, out);
     }
 
     
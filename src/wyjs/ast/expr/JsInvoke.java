@@ -1,9 +1,11 @@
 package wyjs.ast.expr;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
+import wyjs.ast.JsNode;
 import wyjs.ast.JsFunction;
 import wyjs.ast.stmt.JsStmt;
 import wyjs.ast.util.JsFormatter;
@@ -14,7 +16,7 @@ import wyjs.ast.util.JsLists;
  * 
  * @author Timothy Jones
  */
-public class JsInvoke implements JsExpr {
+public class JsInvoke extends JsNode.Impl implements JsExpr {
 
   private final JsExpr value;
   private final List<JsExpr> args = new ArrayList<JsExpr>();
@@ -54,8 +56,9 @@ public class JsInvoke implements JsExpr {
   }
 
   
-  public String compile(JsFormatter ws) {
-    return value.compile(ws) + JsLists.compileArgs(args, ws);
+  public void compile(JsFormatter ws, Appendable out) throws IOException {
+    value.compile(ws, out);
+    JsLists.compileArgs(args, ws, out);
   }
 
   
@@ -1,9 +1,11 @@
 package wyjs.ast.expr;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
+import wyjs.ast.JsNode;
 import wyjs.ast.util.JsFormatter;
 import wyjs.ast.util.JsLists;
 
@@ -12,7 +14,7 @@ import wyjs.ast.util.JsLists;
  * 
  * @author Timothy Jones
  */
-public class JsList implements JsExpr {
+public class JsList extends JsNode.Impl implements JsExpr {
 
   private final List<JsExpr> values = new ArrayList<JsExpr>();
   
@@ -33,12 +35,15 @@ public class JsList implements JsExpr {
   }
   
   
-  public String compile(JsFormatter ws) {
+  public void compile(JsFormatter ws, Appendable out) throws IOException {
     if (values.isEmpty()) {
-      return "[]";
+      out.append("[]");
+      return;
     }
-    
-    return "[" + ws.s + JsLists.compile(values, ws, "," + ws.s) + ws.s + "]";
+
+    out.append("[").append(ws.s);
+    JsLists.compile(values, ws, "," + ws.s, out);
+    out.append(ws.s).append("]");
   }
 
   
@@ -1,7 +1,9 @@
 package wyjs.ast.expr;
 
+import java.io.IOException;
 import java.util.Set;
 
+import wyjs.ast.JsNode;
 import wyjs.ast.util.JsFormatter;
 
 /**
@@ -12,7 +14,7 @@ import wyjs.ast.util.JsFormatter;
  * 
  * @author Timothy Jones
  */
-public class JsLiteral implements JsExpr {
+public class JsLiteral extends JsNode.Impl implements JsExpr {
 
   private final String literal;
 
@@ -60,8 +62,8 @@ public class JsLiteral implements JsExpr {
   }
 
   
-  public String compile(JsFormatter ws) {
-    return literal;
+  public void compile(JsFormatter ws, Appendable out) throws IOException {
+    out.append(literal);
   }
 
   
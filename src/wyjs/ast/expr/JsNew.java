@@ -1,5 +1,6 @@
 package wyjs.ast.expr;
 
+import java.io.IOException;
 import java.util.List;
 
 import wyjs.ast.util.JsFormatter;
@@ -31,8 +32,9 @@ public class JsNew extends JsInvoke {
   }
 
   
-  public String compile(JsFormatter ws) {
-    return "new" + ws.ss + super.compile(ws);
+  public void compile(JsFormatter ws, Appendable out) throws IOException {
+    out.append("new").append(ws.ss);
+    super.compile(ws, out);
   }
 
   /**
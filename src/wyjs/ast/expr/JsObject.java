@@ -1,13 +1,12 @@
 package wyjs.ast.expr;
 
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import wyjs.ast.JsNode;
 import wyjs.ast.util.JsFormatter;
-import wyjs.ast.util.JsLists;
 import wyjs.ast.util.JsRegex;
 
 /**
@@ -15,7 +14,7 @@ import wyjs.ast.util.JsRegex;
  * 
  * @author Timothy Jones
  */
-public class JsObject implements JsExpr {
+public class JsObject extends JsNode.Impl implements JsExpr {
 
   private final Map<String, JsExpr> values = new HashMap<String, JsExpr>();
   
@@ -36,21 +35,27 @@ public class JsObject implements JsExpr {
   }
   
   
-  public String compile(JsFormatter ws) {
+  public void compile(JsFormatter ws, Appendable out) throws IOException {
     if (values.isEmpty()) {
-      return "{}";
+      out.append("{}");
+      return;
     }
-    
-    List<String> fields = new ArrayList<String>();
-    for (String name : values.keySet()) {
-      String value = values.get(name).compile(ws);
+
+    out.append("{").append(ws.s);
+    boolean first = true;
+    for (Map.Entry<String, JsExpr> field : values.entrySet()) {
+      if (!first) {
+        out.append(",").append(ws.s);
+      }
+      first = false;
+      String name = field.getKey();
       if (!JsRegex.isIdentifier(name)) {
         name = JsRegex.stringify(name);
       }
-      fields.add(name + ":" + ws.s + value);
+      out.append(name).append(":").append(ws.s);
+      field.getValue().compile(ws, out);
     }
-    
-    return "{" + ws.s + JsLists.join(fields, "," + ws.s) + ws.s + "}";
+    out.append(ws.s).append("}");
   }
 
   
@@ -1,7 +1,9 @@
 package wyjs.ast.expr;
 
+import java.io.IOException;
 import java.util.Set;
 
+import wyjs.ast.JsNode;
 import wyjs.ast.util.JsFormatter;
 
 /**
@@ -9,7 +11,7 @@ import wyjs.ast.util.JsFormatter;
  * 
  * @author Timothy Jones
  */
-public class JsParens implements JsExpr {
+public class JsParens extends JsNode.Impl implements JsExpr {
 
   private final JsExpr value;
 
@@ -21,8 +23,10 @@ public class JsParens implements JsExpr {
   }
 
   
-  public String compile(JsFormatter ws) {
-    return "(" + value.compile(ws) + ")";
+  public void compile(JsFormatter ws, Appendable out) throws IOException {
+    out.append("(");
+    value.compile(ws, out);
+    out.append(")");
   }
 
   
@@ -1,7 +1,9 @@
 package wyjs.ast.expr;
 
+import java.io.IOException;
 import java.util.Set;
 
+import wyjs.ast.JsNode;
 import wyjs.ast.util.JsBareFormatter;
 import wyjs.ast.util.JsFormatter;
 
@@ -53,7 +55,7 @@ public enum JsUnOp {
    * 
    * @author Timothy Jones
    */
-  private class UN_OP implements JsExpr {
+  private class UN_OP extends JsNode.Impl implements JsExpr {
 
     private final JsExpr value;
 
@@ -65,8 +67,9 @@ public enum JsUnOp {
     }
 
     
-    public String compile(JsFormatter ws) {
-      return JsUnOp.this.compile(ws) + value.compile(ws);
+    public void compile(JsFormatter ws, Appendable out) throws IOException {
+      out.append(JsUnOp.this.compile(ws));
+      value.compile(ws, out);
     }
 
     
@@ -1,7 +1,9 @@
 package wyjs.ast.stmt;
 
+import java.io.IOException;
 import java.util.Set;
 
+import wyjs.ast.JsNode;
 import wyjs.ast.expr.JsExpr;
 import wyjs.ast.util.JsFormatter;
 
@@ -10,7 +12,7 @@ import wyjs.ast.util.JsFormatter;
  * 
  * @author Timothy Jones
  */
-public class JsConstant implements JsStmt {
+public class JsConstant extends JsNode.Impl implements JsStmt {
 
   private final String name;
   private final JsExpr value;
@@ -25,9 +27,11 @@ public class JsConstant implements JsStmt {
   }
 
   
-  public String compile(JsFormatter ws) {
-    return ws.idt + "const" + ws.ss + name + ws.s + "=" + ws.s
-        + value.compile(ws) + ws.ln;
+  public void compile(JsFormatter ws, Appendable out) throws IOException {
+    out.append(ws.idt).append("const").append(ws.ss).append(name).append(ws.s)
+        .append("=").append(ws.s);
+    value.compile(ws, out);
+    out.append(ws.ln);
   }
 
   
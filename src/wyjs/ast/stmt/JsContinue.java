@@ -1,7 +1,9 @@
 package wyjs.ast.stmt;
 
+import java.io.IOException;
 import java.util.Set;
 
+import wyjs.ast.JsNode;
 import wyjs.ast.util.JsFormatter;
 
 /**
@@ -9,7 +11,7 @@ import wyjs.ast.util.JsFormatter;
  * 
  * @author Timothy Jones
  */
-public class JsContinue implements JsStmt {
+public class JsContinue extends JsNode.Impl implements JsStmt {
 
   private final String label;
 
@@ -30,8 +32,12 @@ public class JsContinue implements JsStmt {
   }
 
   
-  public String compile(JsFormatter ws) {
-    return ws.idt + "continue" + (label == null ? "" : ws.ss + label) + ws.ln;
+  public void compile(JsFormatter ws, Appendable out) throws IOException {
+    out.append(ws.idt).append("continue");
+    if (label != null) {
+      out.append(ws.ss).append(label);
+    }
+    out.append(ws.ln);
   }
 
   
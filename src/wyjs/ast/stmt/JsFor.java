@@ -1,9 +1,11 @@
 package wyjs.ast.stmt;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
+import wyjs.ast.JsNode;
 import wyjs.ast.expr.JsAccess;
 import wyjs.ast.expr.JsAssign;
 import wyjs.ast.expr.JsExpr;
@@ -17,7 +19,7 @@ import wyjs.ast.util.JsRegex;
  * 
  * @author Timothy Jones
  */
-public class JsFor implements JsStmt {
+public class JsFor extends JsNode.Impl implements JsStmt {
 
   private final JsExpr collection;
   private final String label;
@@ -83,19 +85,23 @@ public class JsFor implements JsStmt {
   }
 
   
-  public String compile(JsFormatter ws) {
-    String[][] assignments = { { "c", collection.compile(ws) }, { "i", "0" },
-        { "l", "$c.length" } };
-
-    List<String> values = new ArrayList<String>();
-    for (String[] assignment : assignments) {
-      values.add("$" + assignment[0] + ws.s + "=" + ws.s + assignment[1]);
+  public void compile(JsFormatter ws, Appendable out) throws IOException {
+    out.append(ws.idt);
+    if (label != null) {
+      out.append(label).append(":").append(ws.s);
     }
-
-    return ws.idt + (label == null ? "" : label + ":" + ws.s) + "for" + ws.s
-        + "(" + JsLists.join(values, "," + ws.s) + ";" + ws.s + "$i" + ws.s
-        + "<" + ws.s + "$l;" + ws.s + "++$i)" + ws.s + "{" + ws.ln
-        + JsLists.compile(body, ws.next()) + ws.idt + "}" + ws.ln;
+    out.append("for").append(ws.s).append("(");
+    out.append("$c").append(ws.s).append("=").append(ws.s);
+    collection.compile(ws, out);
+    out.append(",").append(ws.s);
+    out.append("$i").append(ws.s).append("=").append(ws.s).append("0");
+    out.append(",").append(ws.s);
+    out.append("$l").append(ws.s).append("=").append(ws.s).append("$c.length");
+    out.append(";").append(ws.s).append("$i").append(ws.s).append("<")
+        .append(ws.s).append("$l;").append(ws.s).append("++$i)").append(ws.s)
+        .append("{").append(ws.ln);
+    JsLists.compile(body, ws.next(), out);
+    out.append(ws.idt).append("}").append(ws.ln);
   }
 
   
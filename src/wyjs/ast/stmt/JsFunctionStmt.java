@@ -1,5 +1,6 @@
 package wyjs.ast.stmt;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Set;
 
@@ -45,8 +46,10 @@ public class JsFunctionStmt extends JsFunction implements JsStmt {
     assert name != null;
   }
 
-  public String compile(JsFormatter ws) {
-    return ws.idt + super.compile(ws) + ws.ln;
+  public void compile(JsFormatter ws, Appendable out) throws IOException {
+    out.append(ws.idt);
+    super.compile(ws, out);
+    out.append(ws.ln);
   }
 
   public void collectAssignments(Set<String> assignments) {}
@@ -1,9 +1,11 @@
 package wyjs.ast.stmt;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
+import wyjs.ast.JsNode;
 import wyjs.ast.expr.JsExpr;
 import wyjs.ast.util.JsFormatter;
 import wyjs.ast.util.JsLists;
@@ -13,7 +15,7 @@ import wyjs.ast.util.JsLists;
  * 
  * @author Timothy Jones
  */
-public class JsIfElse implements JsStmt {
+public class JsIfElse extends JsNode.Impl implements JsStmt {
 
   private final JsExpr condition;
   private final List<JsStmt> ifBody = new ArrayList<JsStmt>(),
@@ -32,11 +34,15 @@ public class JsIfElse implements JsStmt {
     }
   }
 
-  public String compile(JsFormatter ws) {
-    return ws.idt + "if" + ws.s + "(" + condition.compile(ws) + ")" + ws.s
-        + "{" + ws.ln + JsLists.compile(ifBody, ws.next()) + ws.idt + "}"
-        + ws.s + "else" + ws.s + "{" + ws.ln
-        + JsLists.compile(elseBody, ws.next()) + ws.idt + "}" + ws.ln;
+  public void compile(JsFormatter ws, Appendable out) throws IOException {
+    out.append(ws.idt).append("if").append(ws.s).append("(");
+    condition.compile(ws, out);
+    out.append(")").append(ws.s).append("{").append(ws.ln);
+    JsLists.compile(ifBody, ws.next(), out);
+    out.append(ws.idt).append("}").append(ws.s).append("else").append(ws.s)
+        .append("{").append(ws.ln);
+    JsLists.compile(elseBody, ws.next(), out);
+    out.append(ws.idt).append("}").append(ws.ln);
   }
 
   public void collectAssignments(Set<String> assignments) {
@@ -1,5 +1,6 @@
 package wyjs.ast.stmt;
 
+import java.io.IOException;
 import java.util.Set;
 
 import wyjs.ast.JsNode;
@@ -13,7 +14,7 @@ import wyjs.ast.util.JsFormatter;
  * 
  * @author Timothy Jones
  */
-public class JsLine implements JsStmt {
+public class JsLine extends JsNode.Impl implements JsStmt {
 
   private final JsExpr node;
 
@@ -32,13 +33,54 @@ public class JsLine implements JsStmt {
   }
 
   
-  public String compile(JsFormatter ws) {
-    String content = node.compile(ws);
-    if (content.length() == 0) {
-      return content;
+  public void compile(JsFormatter ws, Appendable out) throws IOException {
+    Line line = new Line(ws.idt, out);
+    node.compile(ws, line);
+    if (line.started) {
+      out.append(ws.lb);
+    }
+  }
+
+  /**
+   * An output which only writes the indentation for the line once the line's
+   * content begins, so that a line with no content produces nothing at all.
+   */
+  private static class Line implements Appendable {
+
+    private final String idt;
+    private final Appendable out;
+    private boolean started = false;
+
+    public Line(String idt, Appendable out) {
+      this.idt = idt;
+      this.out = out;
     }
 
-    return ws.idt + content + ws.lb;
+    private void start() throws IOException {
+      if (!started) {
+        started = true;
+        out.append(idt);
+      }
+    }
+
+    public Appendable append(CharSequence csq) throws IOException {
+      return append(csq, 0, csq.length());
+    }
+
+    public Appendable append(CharSequence csq, int start, int end)
+        throws IOException {
+      if (start < end) {
+        start();
+        out.append(csq, start, end);
+      }
+      return this;
+    }
+
+    public Appendable append(char c) throws IOException {
+      start();
+      out.append(c);
+      return this;
+    }
   }
 
   
@@ -1,7 +1,9 @@
 package wyjs.ast.stmt;
 
+import java.io.IOException;
 import java.util.Set;
 
+import wyjs.ast.JsNode;
 import wyjs.ast.util.JsFormatter;
 
 /**
@@ -9,7 +11,7 @@ import wyjs.ast.util.JsFormatter;
  * 
  * @author Timothy Jones
  */
-public class JsRaw implements JsStmt {
+public class JsRaw extends JsNode.Impl implements JsStmt {
 
   private final String content;
 
@@ -17,8 +19,8 @@ public class JsRaw implements JsStmt {
     this.content = content;
   }
 
-  public String compile(JsFormatter ws) {
-    return content;
+  public void compile(JsFormatter ws, Appendable out) throws IOException {
+    out.append(content);
   }
 
   public void collectAssignments(Set<String> assignments) {}
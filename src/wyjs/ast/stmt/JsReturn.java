@@ -1,7 +1,9 @@
 package wyjs.ast.stmt;
 
+import java.io.IOException;
 import java.util.Set;
 
+import wyjs.ast.JsNode;
 import wyjs.ast.expr.JsExpr;
 import wyjs.ast.util.JsFormatter;
 
@@ -10,7 +12,7 @@ import wyjs.ast.util.JsFormatter;
  * 
  * @author Timothy Jones
  */
-public class JsReturn implements JsStmt {
+public class JsReturn extends JsNode.Impl implements JsStmt {
 
   private final JsExpr value;
 
@@ -38,9 +40,13 @@ public class JsReturn implements JsStmt {
     return value == null;
   }
 
-  public String compile(JsFormatter ws) {
-    return ws.idt + "return" + (this.value == null ? "" : " " + value.compile(ws))
-        + ws.ln;
+  public void compile(JsFormatter ws, Appendable out) throws IOException {
+    out.append(ws.idt).append("return");
+    if (this.value != null) {
+      out.append(" ");
+      value.compile(ws, out);
+    }
+    out.append(ws.ln);
   }
 
   public void collectAssignments(Set<String> assignments) {
@@ -1,9 +1,11 @@
 package wyjs.ast.stmt;
 
+import java.io.IOException;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
 
+import wyjs.ast.JsNode;
 import wyjs.ast.util.JsFormatter;
 import wyjs.ast.util.JsLists;
 
@@ -12,7 +14,7 @@ import wyjs.ast.util.JsLists;
  * 
  * @author Timothy Jones
  */
-public class JsVar implements JsStmt {
+public class JsVar extends JsNode.Impl implements JsStmt {
 
   private final Set<String> vars = new HashSet<String>();
 
@@ -26,12 +28,13 @@ public class JsVar implements JsStmt {
   }
 
   
-  public String compile(JsFormatter ws) {
+  public void compile(JsFormatter ws, Appendable out) throws IOException {
     if (vars.isEmpty()) {
-      return "";
+      return;
     }
-
-    return ws.idt + "var" + ws.ss + JsLists.join(vars, "," + ws.s) + ws.ln;
+    out.append(ws.idt).append("var").append(ws.ss);
+    JsLists.join(vars, "," + ws.s, out);
+    out.append(ws.ln);
   }
 
   
@@ -1,9 +1,11 @@
 package wyjs.ast.stmt;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
+import wyjs.ast.JsNode;
 import wyjs.ast.expr.JsExpr;
 import wyjs.ast.util.JsFormatter;
 import wyjs.ast.util.JsLists;
@@ -14,7 +16,7 @@ import wyjs.ast.util.JsRegex;
  * 
  * @author Timothy Jones
  */
-public class JsWhile implements JsStmt {
+public class JsWhile extends JsNode.Impl implements JsStmt {
 
   private final String label;
   private final JsExpr condition;
@@ -73,10 +75,16 @@ public class JsWhile implements JsStmt {
   }
 
   
-  public String compile(JsFormatter ws) {
-    return ws.idt + (label == null ? "" : label + ":" + ws.s) + "while" + ws.s
-        + "(" + condition.compile(ws) + ")" + ws.s + "{" + ws.ln
-        + JsLists.compile(body, ws.next()) + ws.idt + "}" + ws.ln;
+  public void compile(JsFormatter ws, Appendable out) throws IOException {
+    out.append(ws.idt);
+    if (label != null) {
+      out.append(label).append(":").append(ws.s);
+    }
+    out.append("while").append(ws.s).append("(");
+    condition.compile(ws, out);
+    out.append(")").append(ws.s).append("{").append(ws.ln);
+    JsLists.compile(body, ws.next(), out);
+    out.append(ws.idt).append("}").append(ws.ln);
   }
 
   
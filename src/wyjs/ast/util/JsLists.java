@@ -1,5 +1,6 @@
 package wyjs.ast.util;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
@@ -19,17 +20,29 @@ public abstract class JsLists {
   }
 
   public static String join(Collection<String> values, String on) {
+    StringBuilder out = new StringBuilder();
+    try {
+      join(values, on, out);
+    } catch (IOException e) {
+      // a string builder never throws this.
+      throw new RuntimeException(e);
+    }
+    return out.toString();
+  }
+
+  public static void join(Collection<String> values, String on,
+      Appendable out) throws IOException {
     if (values == null || values.isEmpty()) {
-      return "";
+      return;
     }
 
-    String out = "";
     Iterator<String> it = values.iterator();
     while (it.hasNext()) {
-      out += it.next() + (it.hasNext() ? on : "");
+      out.append(it.next());
+      if (it.hasNext()) {
+        out.append(on);
+      }
     }
-
-    return out;
   }
 
   public static String compile(List<? extends JsNode> nodes, JsFormatter ws) {
@@ -38,29 +51,56 @@ public abstract class JsLists {
 
   public static String compile(List<? extends JsNode> nodes, JsFormatter ws,
       String sep) {
-    if (nodes == null || nodes.isEmpty()) {
-      return "";
+    StringBuilder out = new StringBuilder();
+    try {
+      compile(nodes, ws, sep, out);
+    } catch (IOException e) {
+      // a string builder never throws this.
+      throw new RuntimeException(e);
     }
-    
-    List<String> values = new ArrayList<String>();
-    for (JsNode node : nodes) {
-      values.add(node.compile(ws));
+    return out.toString();
+  }
+
+  public static void compile(List<? extends JsNode> nodes, JsFormatter ws,
+      Appendable out) throws IOException {
+    compile(nodes, ws, "", out);
+  }
+
+  public static void compile(List<? extends JsNode> nodes, JsFormatter ws,
+      String sep, Appendable out) throws IOException {
+    if (nodes == null || nodes.isEmpty()) {
+      return;
     }
 
-    return join(values, sep);
+    Iterator<? extends JsNode> it = nodes.iterator();
+    while (it.hasNext()) {
+      it.next().compile(ws, out);
+      if (it.hasNext()) {
+        out.append(sep);
+      }
+    }
   }
 
   public static String compileParams(List<String> params, JsFormatter ws) {
     return "(" + join(params, "," + ws.s) + ")";
   }
 
+  public static void compileParams(List<String> params, JsFormatter ws,
+      Appendable out) throws IOException {
+    out.append("(");
+    join(params, "," + ws.s, out);
+    out.append(")");
+  }
+
   public static String compileArgs(List<? extends JsExpr> args, JsFormatter ws) {
-    List<String> values = new ArrayList<String>(args.size());
-    for (JsExpr expr : args) {
-      values.add(expr.compile(ws));
-    }
+    return "(" + compile(args, ws, "," + ws.s) + ")";
+  }
 
-    return "(" + join(values, "," + ws.s) + ")";
+  public static void compileArgs(List<? extends JsExpr> args, JsFormatter ws,
+      Appendable out) throws IOException {
+    out.append("(");
+    compile(args, ws, "," + ws.s, out);
+    out.append(")");
   }
 
 }
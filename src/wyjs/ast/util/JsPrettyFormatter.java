@@ -1,11 +1,15 @@
 package wyjs.ast.util;
 
+/**
+ * Formats Javascript with one statement per line, indenting each block. A
+ * formatter holds no mutable state, so the same instance can be shared by
+ * any number of threads.
+ */
 public class JsPrettyFormatter extends JsFormatter {
 
   private static final String in = "  ";
 
   private final JsPrettyFormatter prev;
-  private JsPrettyFormatter next = null;
 
   public JsPrettyFormatter() {
     this(null, "");
@@ -18,11 +22,7 @@ public class JsPrettyFormatter extends JsFormatter {
 
   
   public JsFormatter next() {
-    if (next == null) {
-      return next = new JsPrettyFormatter(this, idt + in);
-    }
-
-    return next;
+    return new JsPrettyFormatter(this, idt + in);
   }
 
   
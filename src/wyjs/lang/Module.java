@@ -19,7 +19,10 @@
 package wyjs.lang;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import wyjs.ModuleLoader;
 import wyjs.util.Attribute;
@@ -34,28 +37,26 @@ public class Module extends ModuleLoader.Skeleton {
 	  super(mid);    
     this.filename = filename;
     this.declarations = new ArrayList<Decl>(decls);
+
+    // the names are built here, since skeletons are shared between threads.
+    HashSet<String> ns = new HashSet<String>();
+    for (Decl d : declarations) {
+      if (d instanceof ConstDecl || d instanceof TypeDecl
+          || d instanceof FunDecl) {
+        ns.add(d.name());
+      }
+    }
+    this.names = Collections.unmodifiableSet(ns);
   }
 
+  private final Set<String> names;
+
   public boolean hasName(String name) {
-	  for(Decl d : declarations) {
-		  if(d instanceof ConstDecl) {
-			  ConstDecl cd = (ConstDecl) d;
-			  if(cd.name().equals(name)) {
-				  return true;
-			  }
-		  } else if(d instanceof TypeDecl) {
-			  TypeDecl cd = (TypeDecl) d;
-			  if(cd.name().equals(name)) {
-				  return true;
-			  }
-		  } else if(d instanceof FunDecl) {
-			  FunDecl fd = (FunDecl) d;
-			  if(fd.name().equals(name)) {
-				  return true;
-			  }
-		  }
-	  }
-	  return false;
+	  return names.contains(name);
+  }
+
+  public Set<String> names() {
+	  return names;
   }
   
   public ConstDecl constant(String name) {
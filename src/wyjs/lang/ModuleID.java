@@ -21,6 +21,8 @@ package wyjs.lang;
 import java.io.File;
 import java.util.*;
 
+import wyjs.util.Symbols;
+
 /**
  * A Module Identifier consists of a list of packages, and a module name. The
  * purpose of the UMI is to provide a uniform way of referring to modules
@@ -42,12 +44,12 @@ public class ModuleID {
    */
   public ModuleID(Collection<String> pkg, String module) {
     this.pkg = new PkgID(pkg);
-    this.module = module;
+    this.module = Symbols.intern(module);
   }
 
   public ModuleID(PkgID pkg, String module) {
     this.pkg = pkg;
-    this.module = module;
+    this.module = Symbols.intern(module);
   }
 
   public static ModuleID fromString(String pkg) {
@@ -92,7 +94,7 @@ public class ModuleID {
   public boolean equals(Object o) {
     if (o instanceof ModuleID) {
       ModuleID u = (ModuleID) o;
-      return u.module.equals(module) && u.pkg.equals(pkg);
+      return u.module == module && u.pkg.equals(pkg);
     }
     return false;
   }
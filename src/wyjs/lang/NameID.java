@@ -18,10 +18,13 @@
 
 package wyjs.lang;
 
+import wyjs.util.Symbols;
+
 /**
  * A Name Identifier consists of a module, and a name within that module. The
  * purpose of this is to provide a uniform way of referring to modules + names
- * throughout the compiler.
+ * throughout the compiler. Names are interned, so they can be compared by
+ * identity.
  * 
  * @author David Pearce
  */
@@ -32,7 +35,7 @@ public class NameID {
 
   public NameID(ModuleID module, String name) {
     this.module = module;
-    this.name = name;
+    this.name = Symbols.intern(name);
   }
 
   public String name() {
@@ -54,7 +57,7 @@ public class NameID {
   public boolean equals(Object o) {
     if (o instanceof NameID) {
       NameID u = (NameID) o;
-      return u.module.equals(module) && u.name.equals(name);
+      return u.name == name && u.module.equals(module);
     }
     return false;
   }
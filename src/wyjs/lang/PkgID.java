@@ -21,6 +21,8 @@ package wyjs.lang;
 import java.util.*;
 import java.io.File;
 
+import wyjs.util.Symbols;
+
 public class PkgID implements Iterable<String> {
 
   private final ArrayList<String> components;
@@ -28,7 +30,7 @@ public class PkgID implements Iterable<String> {
   public PkgID(String... cs) {
     components = new ArrayList<String>();
     for (String s : cs) {
-      components.add(s);
+      components.add(Symbols.intern(s));
     }
   }
 
@@ -42,7 +44,10 @@ public class PkgID implements Iterable<String> {
   }
 
   public PkgID(Collection<String> cs) {
-    components = new ArrayList<String>(cs);
+    components = new ArrayList<String>(cs.size());
+    for (String s : cs) {
+      components.add(Symbols.intern(s));
+    }
   }
 
   public String get(int index) {
@@ -67,7 +72,7 @@ public class PkgID implements Iterable<String> {
 
   public PkgID append(String pkg) {
     PkgID r = new PkgID(components);
-    r.components.add(pkg);
+    r.components.add(Symbols.intern(pkg));
     return r;
   }
 
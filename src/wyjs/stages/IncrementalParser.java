@@ -0,0 +1,518 @@
+// This file is part of the Whiley-to-Java Compiler (wyjc).
+//
+// The Whiley-to-Java Compiler is free software; you can redistribute
+// it and/or modify it under the terms of the GNU General Public
+// License as published by the Free Software Foundation; either
+// version 3 of the License, or (at your option) any later version.
+//
+// The Whiley-to-Java Compiler is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE. See the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with the Whiley-to-Java Compiler. If not, see
+// <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+package wyjs.stages;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import wyjs.lang.Expr;
+import wyjs.lang.Module;
+import wyjs.lang.Module.ConstDecl;
+import wyjs.lang.Module.Decl;
+import wyjs.lang.Module.FunDecl;
+import wyjs.lang.Module.ImportDecl;
+import wyjs.lang.Module.Parameter;
+import wyjs.lang.Module.TypeDecl;
+import wyjs.lang.Stmt;
+import wyjs.lang.UnresolvedType;
+import wyjs.util.Attribute;
+import wyjs.util.Pair;
+import wyjs.util.ParseError;
+import wyjs.util.SyntacticElement;
+
+/**
+ * An incremental parser holds the text of a source file as it is edited,
+ * along with its parsed declarations. After each edit, only the declarations
+ * which the edit could have affected are lexed and parsed again. The others
+ * are reused as they are, with their source positions moved to match the new
+ * text.
+ *
+ * The file is split into chunks: a prologue, holding the package declaration
+ * and anything else before the first declaration, followed by one chunk for
+ * each top-level declaration. A chunk runs from the declaration's first
+ * character up to the start of the next one. Since the parser looks ahead to
+ * decide where a declaration ends, each chunk also records how far the lexer
+ * read while it was parsed, and an edit affects exactly those chunks which
+ * read the edited text. Parsing starts again at the first of them, and stops
+ * as soon as it reaches the start of a declaration which was unaffected,
+ * since everything from there on must parse just as it did before.
+ *
+ * Line endings are normalised to "\n", and positions refer to the normalised
+ * text. The declarations are shared between the modules returned by
+ * module(). Since later stages of the compiler add to them, module() first
+ * resets each one to how it was parsed, and so only the last module it
+ * returned can be used.
+ *
+ * @author djp
+ *
+ */
+public class IncrementalParser {
+
+  private static final class Chunk {
+
+    public int start;
+
+    /**
+     * The position just after the last character which the lexer read (or
+     * looked at) while the chunk was parsed.
+     */
+    public int read;
+
+    /**
+     * The declaration parsed, or null for the prologue.
+     */
+    public Decl decl;
+
+    /**
+     * The distance by which the source positions of the declaration must be
+     * moved, which is done lazily when the next module is built.
+     */
+    public int shift = 0;
+
+    /**
+     * The binary operations of the declaration which were parsed as
+     * additions, or null until the declaration is first handed out. The type
+     * checker turns additions of sets into unions, which must be undone
+     * before the declaration is checked again.
+     */
+    public ArrayList<Expr.BinOp> sums;
+
+    public Chunk(int start) {
+      this.start = start;
+    }
+  }
+
+  private final String filename;
+  private char[] text = new char[1];
+  private int length = 0;
+
+  private ArrayList<String> pkg;
+  private ArrayList<Chunk> chunks = new ArrayList<Chunk>();
+
+  /**
+   * If the last parse failed, this is the position from which the text must
+   * be parsed again, and error is what it failed with. The chunks after this
+   * position are only kept in case parsing can resume at one of them.
+   */
+  private int dirty = 0;
+  private RuntimeException error;
+
+  public IncrementalParser(String filename, String text) {
+    this.filename = filename;
+    edit(0, 0, text);
+  }
+
+  public String text() {
+    return new String(text, 0, length);
+  }
+
+  /**
+   * Replace the given range of the text, and parse whatever it affects. Any
+   * error found is not thrown here, but by module(), until an edit fixes it.
+   *
+   * @param offset The position of the first character to replace.
+   * @param removed The number of characters to replace.
+   * @param inserted The text to replace them with.
+   */
+  public void edit(int offset, int removed, String inserted) {
+    if (offset < 0 || removed < 0 || offset + removed > length) {
+      throw new IndexOutOfBoundsException("edit " + offset + ":" + removed
+          + " out of bounds for length " + length);
+    }
+    char[] chars = normalise(inserted);
+    int delta = chars.length - removed;
+    int end = offset + removed;
+
+    // one more character is kept free for a final newline.
+    if (length + delta + 1 > text.length) {
+      text = Arrays.copyOf(text, Math.max(length + delta + 1, text.length * 2));
+    }
+    System.arraycopy(text, end, text, offset + chars.length, length - end);
+    System.arraycopy(chars, 0, text, offset, chars.length);
+    length += delta;
+
+    // Parsing starts again from the first chunk which read any of the
+    // replaced text, or from where the last parse failed. The chunks before
+    // that are kept, and those after which the edit didn't affect may be
+    // resumed at, once they have been moved to their new positions.
+    int failed = -1;
+    if (dirty >= 0) {
+      failed = dirty > end ? dirty + delta : Math.min(dirty, offset);
+    }
+    int from = failed >= 0 ? failed : length;
+    boolean[] affected = new boolean[chunks.size()];
+    for (int i = 0; i != chunks.size(); ++i) {
+      Chunk c = chunks.get(i);
+      if (c.start <= end && c.read >= offset) {
+        from = Math.min(from, c.start);
+        affected[i] = true;
+      } else if (c.start > end) {
+        c.start += delta;
+        c.read += delta;
+        c.shift += delta;
+      }
+    }
+    ArrayList<Chunk> kept = new ArrayList<Chunk>();
+    for (int i = 0; i != chunks.size(); ++i) {
+      Chunk c = chunks.get(i);
+      if (!affected[i] && c.start < from) {
+        kept.add(c);
+      }
+    }
+    // Parsing stops at the first resumable chunk, and takes every chunk
+    // after it as it is. So only the unaffected chunks after the last
+    // affected one can be resumed at, since parsing must reach any affected
+    // chunk to read its text again. (Whilst the last parse has failed, an
+    // edit can affect a chunk after others which it leaves alone.) Nothing
+    // up to where the last parse failed can be resumed at either, since that
+    // must be parsed again.
+    ArrayList<Chunk> resumable = new ArrayList<Chunk>();
+    for (int i = chunks.size() - 1; i >= 0; --i) {
+      Chunk c = chunks.get(i);
+      if (affected[i] || c.start <= Math.max(from, failed) || c.decl == null) {
+        break;
+      }
+      resumable.add(c);
+    }
+    Collections.reverse(resumable);
+    parse(from, kept, resumable);
+  }
+
+  /**
+   * Parse the text from the given position, which is either the start of the
+   * text or the start of a declaration, until reaching the end of the text or
+   * the start of a resumable chunk.
+   */
+  private void parse(int from, ArrayList<Chunk> kept, List<Chunk> resumable) {
+    if (from > 0 && kept.isEmpty()) {
+      from = 0;
+    }
+    int limit = length;
+    if (length > 0 && text[length - 1] != '\n') {
+      // the lexer would add this to a file without it.
+      text[limit++] = '\n';
+    }
+
+    Lexer lexer = new Lexer(filename, text, from, limit);
+    Parser parser = new Parser(filename, lexer.stream());
+    for (Chunk c : kept) {
+      if (c.decl != null && !(c.decl instanceof ImportDecl)) {
+        parser.finishedImports = true;
+      }
+    }
+
+    chunks = kept;
+    Chunk last = null;
+    int restart = from;
+    int r = 0;
+    try {
+      if (from == 0) {
+        chunks.clear();
+        pkg = parser.parsePackage();
+        last = new Chunk(0);
+        chunks.add(last);
+      }
+      while (true) {
+        int next = parser.next();
+        if (last != null) {
+          last.read = lexer.position() + 2;
+        }
+        if (next < 0) {
+          r = resumable.size();
+          break;
+        }
+        while (r < resumable.size() && resumable.get(r).start < next) {
+          r++;
+        }
+        if (r < resumable.size() && resumable.get(r).start == next) {
+          break;
+        }
+        restart = next;
+        last = new Chunk(next);
+        last.decl = parser.readDeclaration();
+        chunks.add(last);
+        restart = -1;
+      }
+      dirty = -1;
+      error = null;
+    } catch (RuntimeException e) {
+      if (restart < 0) {
+        // the blank lines and comments after a declaration belong to it.
+        chunks.remove(chunks.size() - 1);
+        restart = last.start;
+      } else if (chunks.isEmpty()) {
+        restart = 0;
+      }
+      dirty = restart;
+      error = e;
+    }
+    while (r < resumable.size()) {
+      Chunk c = resumable.get(r++);
+      if (dirty < 0 || c.start > dirty) {
+        chunks.add(c);
+      }
+    }
+  }
+
+  /**
+   * Build the module from the current text.
+   *
+   * @return
+   */
+  public Module module() {
+    if (error != null) {
+      throw error;
+    }
+    ArrayList<Decl> decls = new ArrayList<Decl>(chunks.size());
+    boolean finishedImports = false;
+    for (Chunk c : chunks) {
+      if (c.decl == null) {
+        continue;
+      }
+      // any declaration handed out before may have been through later stages.
+      new Reset(c).decl(c.decl);
+      c.shift = 0;
+      if (!(c.decl instanceof ImportDecl)) {
+        finishedImports = true;
+      } else if (finishedImports) {
+        // this is reported at the import keyword, as by the parser.
+        Attribute.Source s = c.decl.attribute(Attribute.Source.class);
+        throw new ParseError("import statement must come first", filename,
+            s.start, s.start + "import".length() - 1);
+      }
+      decls.add(c.decl);
+    }
+    return Parser.module(filename, pkg, decls);
+  }
+
+  private static char[] normalise(String s) {
+    char[] chars = new char[s.length()];
+    int n = 0;
+    for (int i = 0; i != s.length(); ++i) {
+      char c = s.charAt(i);
+      if (c == '\r') {
+        if (i + 1 < s.length() && s.charAt(i + 1) == '\n') {
+          i++;
+        }
+        c = '\n';
+      }
+      chars[n++] = c;
+    }
+    return n == chars.length ? chars : Arrays.copyOf(chars, n);
+  }
+
+  /**
+   * A reset returns a chunk's declaration to how it was parsed, moving the
+   * source positions of every element by the chunk's shift and undoing what
+   * later stages did to it: the attributes they added, the invocations they
+   * marked as indirect and the additions they turned into unions. Elements
+   * may be shared within a declaration, so each is only visited once.
+   */
+  private static final class Reset {
+
+    private final int delta;
+    private final ArrayList<Expr.BinOp> sums;
+    private final boolean first;
+    private final Set<SyntacticElement> visited = Collections
+        .newSetFromMap(new IdentityHashMap<SyntacticElement, Boolean>());
+
+    public Reset(Chunk c) {
+      delta = c.shift;
+      first = c.sums == null;
+      if (first) {
+        c.sums = new ArrayList<Expr.BinOp>();
+      }
+      sums = c.sums;
+    }
+
+    private boolean element(SyntacticElement e) {
+      if (e == null || !visited.add(e)) {
+        return false;
+      }
+      List<Attribute> attributes = e.attributes();
+      for (int i = attributes.size() - 1; i >= 0; --i) {
+        Attribute a = attributes.get(i);
+        if (!(a instanceof Attribute.Source)) {
+          // the parser adds only source positions.
+          attributes.remove(i);
+        } else if (delta != 0) {
+          Attribute.Source s = (Attribute.Source) a;
+          attributes.set(i, new Attribute.Source(s.start + delta, s.end
+              + delta));
+        }
+      }
+      return true;
+    }
+
+    public void decl(Decl d) {
+      if (!first) {
+        for (Expr.BinOp b : sums) {
+          b.op = Expr.BOp.ADD;
+        }
+      }
+      if (!element(d)) {
+        return;
+      }
+      if (d instanceof ConstDecl) {
+        expr(((ConstDecl) d).constant);
+      } else if (d instanceof TypeDecl) {
+        type(((TypeDecl) d).type);
+      } else if (d instanceof FunDecl) {
+        FunDecl fd = (FunDecl) d;
+        type(fd.ret);
+        for (Parameter p : fd.parameters) {
+          if (element(p)) {
+            type(p.type);
+          }
+        }
+        stmts(fd.statements);
+      }
+    }
+
+    private void stmts(List<Stmt> stmts) {
+      for (Stmt s : stmts) {
+        stmt(s);
+      }
+    }
+
+    private void stmt(Stmt s) {
+      if (s instanceof Expr) {
+        // invocations are statements too.
+        expr((Expr) s);
+      } else if (!element(s)) {
+        return;
+      } else if (s instanceof Stmt.Assign) {
+        Stmt.Assign a = (Stmt.Assign) s;
+        expr(a.lhs);
+        expr(a.rhs);
+      } else if (s instanceof Stmt.Assert) {
+        expr(((Stmt.Assert) s).expr);
+      } else if (s instanceof Stmt.Return) {
+        expr(((Stmt.Return) s).expr);
+      } else if (s instanceof Stmt.While) {
+        Stmt.While w = (Stmt.While) s;
+        expr(w.condition);
+        stmts(w.body);
+      } else if (s instanceof Stmt.For) {
+        Stmt.For f = (Stmt.For) s;
+        expr(f.source);
+        stmts(f.body);
+      } else if (s instanceof Stmt.IfElse) {
+        Stmt.IfElse i = (Stmt.IfElse) s;
+        expr(i.condition);
+        stmts(i.trueBranch);
+        stmts(i.falseBranch);
+      } else if (s instanceof Stmt.Debug) {
+        expr(((Stmt.Debug) s).expr);
+      }
+    }
+
+    private void exprs(List<? extends Expr> es) {
+      for (Expr e : es) {
+        expr(e);
+      }
+    }
+
+    private void expr(Expr e) {
+      if (!element(e)) {
+        return;
+      } else if (e instanceof Expr.TypeConst) {
+        type(((Expr.TypeConst) e).type);
+      } else if (e instanceof Expr.FunConst) {
+        List<UnresolvedType> ts = ((Expr.FunConst) e).paramTypes;
+        if (ts != null) {
+          types(ts);
+        }
+      } else if (e instanceof Expr.BinOp) {
+        Expr.BinOp b = (Expr.BinOp) e;
+        if (first && b.op == Expr.BOp.ADD) {
+          sums.add(b);
+        }
+        expr(b.lhs);
+        expr(b.rhs);
+      } else if (e instanceof Expr.Access) {
+        Expr.Access a = (Expr.Access) e;
+        expr(a.src);
+        expr(a.index);
+      } else if (e instanceof Expr.UnOp) {
+        expr(((Expr.UnOp) e).mhs);
+      } else if (e instanceof Expr.NaryOp) {
+        exprs(((Expr.NaryOp) e).arguments);
+      } else if (e instanceof Expr.Comprehension) {
+        Expr.Comprehension c = (Expr.Comprehension) e;
+        expr(c.value);
+        for (Pair<String, Expr> p : c.sources) {
+          expr(p.second());
+        }
+        expr(c.condition);
+      } else if (e instanceof Expr.RecordAccess) {
+        expr(((Expr.RecordAccess) e).lhs);
+      } else if (e instanceof Expr.DictionaryGen) {
+        for (Pair<Expr, Expr> p : ((Expr.DictionaryGen) e).pairs) {
+          expr(p.first());
+          expr(p.second());
+        }
+      } else if (e instanceof Expr.RecordGen) {
+        exprs(new ArrayList<Expr>(((Expr.RecordGen) e).fields.values()));
+      } else if (e instanceof Expr.TupleGen) {
+        exprs(((Expr.TupleGen) e).fields);
+      } else if (e instanceof Expr.Invoke) {
+        Expr.Invoke i = (Expr.Invoke) e;
+        i.indirect = false;
+        expr(i.receiver);
+        exprs(i.arguments);
+      }
+    }
+
+    private void types(List<? extends UnresolvedType> ts) {
+      for (UnresolvedType t : ts) {
+        type(t);
+      }
+    }
+
+    private void type(UnresolvedType t) {
+      if (!element(t)) {
+        return;
+      } else if (t instanceof UnresolvedType.List) {
+        type(((UnresolvedType.List) t).element);
+      } else if (t instanceof UnresolvedType.Set) {
+        type(((UnresolvedType.Set) t).element);
+      } else if (t instanceof UnresolvedType.Dictionary) {
+        UnresolvedType.Dictionary d = (UnresolvedType.Dictionary) t;
+        type(d.key);
+        type(d.value);
+      } else if (t instanceof UnresolvedType.Union) {
+        types(((UnresolvedType.Union) t).bounds);
+      } else if (t instanceof UnresolvedType.Record) {
+        types(new ArrayList<UnresolvedType>(((UnresolvedType.Record) t).types
+            .values()));
+      } else if (t instanceof UnresolvedType.Tuple) {
+        types(((UnresolvedType.Tuple) t).types);
+      } else if (t instanceof UnresolvedType.Fun) {
+        UnresolvedType.Fun f = (UnresolvedType.Fun) t;
+        type(f.ret);
+        types(f.paramTypes);
+      }
+    }
+  }
+}
@@ -18,23 +18,26 @@
 
 package wyjs.stages;
 
-import java.io.BufferedReader;
+import static wyjs.stages.TokenStream.*;
+
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
-import java.math.BigInteger;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
+import wyjs.util.LineIndex;
 import wyjs.util.SyntaxError;
 
-public class Lexer {
+public class Lexer implements TokenStream.Source {
 
   private String filename;
-  private StringBuffer input;
+  private char[] input;
+  private int length;
   private int pos;
+  private TokenStream tokens;
+  private LineIndex lines;
 
   public Lexer(String filename) throws IOException {
     this(new InputStreamReader(new FileInputStream(filename), "UTF8"));
@@ -45,89 +48,264 @@ public class Lexer {
     this(new InputStreamReader(instream, "UTF8"));
   }
 
-  public Lexer(Reader reader) throws IOException {
-    BufferedReader in = new BufferedReader(reader);
+  public Lexer(String filename, InputStream instream) throws IOException {
+    this(instream);
+    this.filename = filename;
+  }
 
-    StringBuffer text = new StringBuffer();
-    String tmp;
-    while ((tmp = in.readLine()) != null) {
-      text.append(tmp);
-      text.append("\n");
+  public Lexer(Reader reader) throws IOException {
+    char[] text = new char[8192];
+    int n = 0, r;
+    while ((r = reader.read(text, n, text.length - n)) != -1) {
+      n += r;
+      if (n == text.length) {
+        text = Arrays.copyOf(text, n * 2);
+      }
     }
+    reader.close();
+    init(text, n);
+  }
 
+  /**
+   * Construct a lexer which scans the given characters directly. The array
+   * is not copied, and is shared by the tokens produced, so it must not be
+   * modified afterwards.
+   * 
+   * @param filename
+   * @param text
+   * @param length The number of characters of text to scan.
+   */
+  public Lexer(String filename, char[] text, int length) {
+    this.filename = filename;
+    init(text, length);
+  }
+
+  /**
+   * Construct a lexer which scans the given characters from start up to end.
+   * The characters are used as they are, so their line endings must already
+   * be normalised, and the last line to be scanned must end with a newline.
+   * Token positions are offsets into the whole array.
+   * 
+   * @param filename
+   * @param text
+   * @param start
+   * @param end
+   */
+  public Lexer(String filename, char[] text, int start, int end) {
+    this.filename = filename;
+    this.input = text;
+    this.length = end;
+    this.pos = start;
+  }
+
+  /**
+   * Normalise the line endings of the given text in place, such that every
+   * line (including the last) is terminated by a single newline. Token
+   * positions are offsets into this normalised text.
+   * 
+   * @param text
+   * @param n
+   */
+  private void init(char[] text, int n) {
+    LineIndex.Builder lines = new LineIndex.Builder();
+    int len = 0;
+    for (int i = 0; i < n; ++i) {
+      char c = text[i];
+      if (c == '\r') {
+        if (i + 1 < n && text[i + 1] == '\n') {
+          i++;
+        }
+        c = '\n';
+      }
+      text[len++] = c;
+      if (c == '\n' && i + 1 < n) {
+        lines.add(len);
+      }
+    }
+    if (len > 0 && text[len - 1] != '\n') {
+      if (len == text.length) {
+        text = Arrays.copyOf(text, len + 1);
+      }
+      text[len++] = '\n';
+    }
     input = text;
+    length = len;
+    this.lines = lines.build(text);
   }
 
-  public List<Token> scan() {
-    ArrayList<Token> tokens = new ArrayList<Token>();
-    pos = 0;
-
-    while (pos < input.length()) {
-      char c = input.charAt(pos);
-
-      if (Character.isDigit(c)) {
-        tokens.add(scanDigits());
-      } else if (c == '"') {
-        tokens.add(scanString());
-      } else if (c == '\'') {
-        tokens.add(scanChar());
-      } else if (isOperatorStart(c)) {
-        tokens.add(scanOperator());
-      } else if (isIdentifierStart(c)) {
-        tokens.add(scanIdentifier());
-      } else if (c == '\n') {
-        tokens.add(new NewLine(pos++));
-      } else if (c == '\t') {
-        tokens.add(scanTabs());
-      } else if (Character.isWhitespace(c)) {
-        skipWhitespace(tokens);
-      } else {
-        syntaxError("syntax error");
-      }
+  /**
+   * Get the index of the input's lines.
+   * 
+   * @return
+   */
+  public LineIndex lines() {
+    if (lines == null) {
+      lines = LineIndex.build(input, length);
+    }
+    return lines;
+  }
+
+  /**
+   * Scan the whole input into a token stream.
+   * 
+   * @return
+   */
+  public TokenStream lex() {
+    // most tokens are several characters long, and the stream grows anyway.
+    tokens = new TokenStream(input, (length - pos) / 4);
+    while (pos < length) {
+      scan();
     }
+    return tokens;
+  }
 
+  /**
+   * Get a token stream which scans the input as its tokens are asked for,
+   * rather than all at once. The stream holds only the tokens which haven't
+   * been released, so a file need never be held in tokens all at once.
+   * 
+   * @return
+   */
+  public TokenStream stream() {
+    tokens = new TokenStream(input, 64, this);
     return tokens;
   }
 
-  public Token scanComment() {
+  /**
+   * Get the position of the next character to be scanned. Every character
+   * before it has been read, and so may have affected the tokens produced,
+   * as may the two characters from it onwards (which are looked at to decide
+   * where a token ends).
+   * 
+   * @return
+   */
+  public int position() {
+    return pos;
+  }
+
+  public boolean next() {
+    int n = tokens.size();
+    while (pos < length && tokens.size() == n) {
+      scan();
+    }
+    return tokens.size() != n;
+  }
+
+  /**
+   * Scan whatever begins at the current position, which adds at most one
+   * token to the stream.
+   */
+  private void scan() {
+    char c = input[pos];
+
+    if (Character.isDigit(c)) {
+      scanDigits();
+    } else if (c == '"') {
+      scanString();
+    } else if (c == '\'') {
+      scanChar();
+    } else if (isOperatorStart(c)) {
+      scanOperator();
+    } else if (isIdentifierStart(c)) {
+      scanIdentifier();
+    } else if (c == '\n') {
+      token(NEWLINE, 1);
+    } else if (c == '\t') {
+      scanTabs();
+    } else if (Character.isWhitespace(c)) {
+      skipWhitespace();
+    } else {
+      syntaxError("syntax error");
+    }
+  }
+
+  /**
+   * Add a token of the given kind and length, starting at the current
+   * position, and move past it.
+   */
+  private void token(int kind, int len) {
+    tokens.add(kind, pos, pos + len, 0);
+    pos += len;
+  }
+
+  public void scanComment() {
     int start = pos;
-    while (pos < input.length() && input.charAt(pos) != '\n') {
+    while (pos < length && input[pos] != '\n') {
       pos++;
     }
-    return new Comment(input.substring(start, pos), start);
+    tokens.add(COMMENT, start, pos, 0);
   }
 
-  public Token scanDigits() {
+  /**
+   * A number below EXACT is exactly representable as a double. Once the
+   * digits of a literal reach it, they are no longer accumulated, and the
+   * literal falls back on slower, arbitrary-precision parsing.
+   */
+  private static final long EXACT = 1L << 53;
+
+  /**
+   * The powers of ten which are exactly representable as doubles.
+   */
+  private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4,
+      1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17,
+      1e18, 1e19, 1e20, 1e21, 1e22 };
+
+  public void scanDigits() {
     int start = pos;
-    while (pos < input.length() && Character.isDigit(input.charAt(pos))) {
+    long value = 0;
+    while (pos < length && Character.isDigit(input[pos])) {
+      value = accumulate(value, input[pos]);
       pos = pos + 1;
     }
-    if (pos < input.length() && input.charAt(pos) == '.') {
+    if (pos < length && input[pos] == '.') {
       pos = pos + 1;
-      if (pos < input.length() && input.charAt(pos) == '.') {
+      if (pos < length && input[pos] == '.') {
         // this is case for range e.g. 0..1
         pos = pos - 1;
-        int r = new BigInteger(input.substring(start, pos)).intValue();
-        return new Int(r, input.substring(start, pos), start);
+        addInteger(start, value);
+        return;
       }
-      while (pos < input.length() && Character.isDigit(input.charAt(pos))) {
+      int scale = 0;
+      while (pos < length && Character.isDigit(input[pos])) {
+        value = accumulate(value, input[pos]);
+        scale++;
         pos = pos + 1;
       }
-      Double r = new Double(input.substring(start, pos));
-      return new Real(r, input.substring(start, pos), start);
+      double r;
+      if (value < EXACT && scale < POWERS_OF_TEN.length) {
+        // both are exact, so dividing them rounds correctly.
+        r = value / POWERS_OF_TEN[scale];
+      } else {
+        r = Double.parseDouble(new String(input, start, pos - start));
+      }
+      tokens.add(REAL_LITERAL, start, pos, tokens.addReal(r));
+    } else {
+      addInteger(start, value);
+    }
+  }
+
+  private static long accumulate(long value, char digit) {
+    if (value >= EXACT) {
+      return EXACT;
+    }
+    return value * 10 + Character.digit(digit, 10);
+  }
+
+  private void addInteger(int start, long value) {
+    if (value <= Integer.MAX_VALUE) {
+      tokens.add(INT_LITERAL, start, pos, (int) value);
     } else {
-      int r = new BigInteger(input.substring(start, pos)).intValue();
-      return new Int(r, input.substring(start, pos), start);
+      tokens.add(BIG_INT_LITERAL, start, pos, tokens.intern(start, pos));
     }
   }
 
-  public Token scanChar() {
+  public void scanChar() {
     int start = pos;
     pos++;
-    char c = input.charAt(pos++);
+    char c = input[pos++];
     if (c == '\\') {
       // escape code
-      switch (input.charAt(pos++)) {
+      switch (input[pos++]) {
       case 't':
         c = '\t';
         break;
@@ -138,26 +316,35 @@ public class Lexer {
         syntaxError("unrecognised escape character", pos);
       }
     }
-    if (input.charAt(pos) != '\'') {
+    if (input[pos] != '\'') {
       syntaxError("unexpected end-of-character", pos);
     }
     pos = pos + 1;
-    return new Char(c, input.substring(start, pos), start);
+    tokens.add(CHAR_LITERAL, start, pos, c);
   }
 
-  public Token scanString() {
+  public void scanString() {
     int start = pos;
+    boolean escaped = false;
     pos++;
-    while (pos < input.length()) {
-      char c = input.charAt(pos);
+    while (pos < length) {
+      char c = input[pos];
       if (c == '"') {
-        String v = input.substring(start, ++pos);
-        return new Strung(parseString(v), v, start);
+        pos++;
+        int v;
+        if (escaped) {
+          v = tokens.intern(parseString(new String(input, start, pos - start)));
+        } else {
+          v = tokens.intern(start + 1, pos - 1);
+        }
+        tokens.add(STRING_LITERAL, start, pos, v);
+        return;
+      } else if (c == '\\') {
+        escaped = true;
       }
       pos = pos + 1;
     }
     syntaxError("unexpected end-of-string", pos - 1);
-    return null;
   }
 
   protected String parseString(String v) {
@@ -237,198 +424,233 @@ public class Lexer {
       UC_SUPSETEQ, UC_SETUNION, UC_SETINTERSECTION, UC_LESSEQUALS,
       UC_GREATEREQUALS, UC_ELEMENTOF };
 
+  /**
+   * The operator tables are indexed by character, covering ASCII followed by
+   * the block of mathematical operators from UC_FIRST to UC_LAST. For each
+   * character, they give whether it starts an operator, the kind of the
+   * operator it forms alone (or -1), and the second character and kind of
+   * the operator it forms with another (if any). A comment is treated as
+   * the operator "//".
+   */
+  private static final char UC_FIRST = '\u2200';
+  private static final char UC_LAST = '\u2287';
+  private static final int NOPS = 128 + UC_LAST - UC_FIRST + 1;
+
+  private static final boolean[] operatorStarts = new boolean[NOPS];
+  private static final int[] operators = new int[NOPS];
+  private static final char[] pairSeconds = new char[NOPS];
+  private static final int[] pairs = new int[NOPS];
+
+  static {
+    Arrays.fill(operators, -1);
+    for (char c : opStarts) {
+      operatorStarts[operatorIndex(c)] = true;
+    }
+    operator(',', COMMA);
+    operator(':', COLON);
+    operator(';', SEMICOLON);
+    operator('(', LEFT_BRACE);
+    operator(')', RIGHT_BRACE);
+    operator('[', LEFT_SQUARE);
+    operator(']', RIGHT_SQUARE);
+    operator('{', LEFT_CURLY);
+    operator('}', RIGHT_CURLY);
+    operator('+', PLUS);
+    operator('-', MINUS);
+    operator('*', STAR);
+    operator('&', ADDRESS_OF);
+    operator('|', BAR);
+    operator('/', RIGHT_SLASH);
+    operator('!', SHREAK);
+    operator('?', QUESTION);
+    operator('=', EQUALS);
+    operator('<', LEFT_ANGLE);
+    operator('>', RIGHT_ANGLE);
+    operator('.', DOT);
+    operator(UC_LESSEQUALS, LESS_EQUALS);
+    operator(UC_GREATEREQUALS, GREATER_EQUALS);
+    operator(UC_SETUNION, UNION);
+    operator(UC_SETINTERSECTION, INTERSECTION);
+    operator(UC_ELEMENTOF, ELEM_OF);
+    operator(UC_SUBSET, SUBSET);
+    operator(UC_SUBSETEQ, SUBSET_EQUALS);
+    operator(UC_SUPSET, SUPSET);
+    operator(UC_SUPSETEQ, SUPSET_EQUALS);
+    operator(UC_EMPTYSET, EMPTY_SET);
+    operator(UC_LOGICALOR, LOGICAL_OR);
+    operator(UC_LOGICALAND, LOGICAL_AND);
+
+    pair('.', '.', DOTDOT);
+    pair('-', '>', ARROW);
+    pair('&', '&', LOGICAL_AND);
+    pair('|', '|', LOGICAL_OR);
+    pair('/', '/', COMMENT);
+    pair('!', '=', NOT_EQUALS);
+    pair('=', '=', EQUALS_EQUALS);
+    pair('<', '=', LESS_EQUALS);
+    pair('>', '=', GREATER_EQUALS);
+    pair('~', '=', TYPE_EQUALS);
+  }
+
+  private static void operator(char c, int kind) {
+    operators[operatorIndex(c)] = kind;
+  }
+
+  private static void pair(char first, char second, int kind) {
+    pairSeconds[operatorIndex(first)] = second;
+    pairs[operatorIndex(first)] = kind;
+  }
+
+  /**
+   * Get the index of the given character in the operator tables, or -1 if
+   * it has none.
+   */
+  private static int operatorIndex(char c) {
+    if (c < 128) {
+      return c;
+    } else if (c >= UC_FIRST && c <= UC_LAST) {
+      return 128 + c - UC_FIRST;
+    }
+    return -1;
+  }
+
   public boolean isOperatorStart(char c) {
-    for (char o : opStarts) {
-      if (c == o) {
-        return true;
-      }
-    }
-    return false;
+    int i = operatorIndex(c);
+    return i >= 0 && operatorStarts[i];
   }
 
-  public Token scanOperator() {
-    char c = input.charAt(pos);
+  public void scanOperator() {
+    char c = input[pos];
+    int i = operatorIndex(c);
 
-    if (c == '.') {
-      if ((pos + 1) < input.length() && input.charAt(pos + 1) == '.') {
-        pos += 2;
-        return new DotDot(pos - 2);
-      } else {
-        return new Dot(pos++);
-      }
-    } else if (c == ',') {
-      return new Comma(pos++);
-    } else if (c == ':') {
-      return new Colon(pos++);
-    } else if (c == ';') {
-      return new SemiColon(pos++);
-    } else if (c == '(') {
-      return new LeftBrace(pos++);
-    } else if (c == ')') {
-      return new RightBrace(pos++);
-    } else if (c == '[') {
-      return new LeftSquare(pos++);
-    } else if (c == ']') {
-      return new RightSquare(pos++);
-    } else if (c == '{') {
-      return new LeftCurly(pos++);
-    } else if (c == '}') {
-      return new RightCurly(pos++);
-    } else if (c == '+') {
-      return new Plus(pos++);
-    } else if (c == '-') {
-      if ((pos + 1) < input.length() && input.charAt(pos + 1) == '>') {
-        pos += 2;
-        return new Arrow("->", pos - 2);
-      } else {
-        return new Minus(pos++);
-      }
-    } else if (c == '*') {
-      return new Star(pos++);
-    } else if (c == '&') {
-      if ((pos + 1) < input.length() && input.charAt(pos + 1) == '&') {
-        pos += 2;
-        return new LogicalAnd("&&", pos - 2);
-      } else {
-        return new AddressOf("&", pos++);
-      }
-    } else if (c == '|') {
-      if ((pos + 1) < input.length() && input.charAt(pos + 1) == '|') {
-        pos += 2;
-        return new LogicalOr("||", pos - 2);
-      } else {
-        return new Bar(pos++);
-      }
-    } else if (c == '/') {
-      if ((pos + 1) < input.length() && input.charAt(pos + 1) == '/') {
-        return scanComment();
-      } else {
-        return new RightSlash(pos++);
-      }
-    } else if (c == '!') {
-      if ((pos + 1) < input.length() && input.charAt(pos + 1) == '=') {
-        pos += 2;
-        return new NotEquals("!=", pos - 2);
-      } else {
-        return new Shreak(pos++);
-      }
-    } else if (c == '?') {
-      return new Question(pos++);
-    } else if (c == '=') {
-      if ((pos + 1) < input.length() && input.charAt(pos + 1) == '=') {
-        pos += 2;
-        return new EqualsEquals(pos - 2);
-      } else {
-        return new Equals(pos++);
-      }
-    } else if (c == '<') {
-      if ((pos + 1) < input.length() && input.charAt(pos + 1) == '=') {
-        pos += 2;
-        return new LessEquals("<=", pos - 2);
-      } else {
-        return new LeftAngle(pos++);
-      }
-    } else if (c == '>') {
-      if ((pos + 1) < input.length() && input.charAt(pos + 1) == '=') {
-        pos += 2;
-        return new GreaterEquals(">=", pos - 2);
+    if (pairSeconds[i] != 0 && (pos + 1) < length
+        && input[pos + 1] == pairSeconds[i]) {
+      if (pairs[i] == COMMENT) {
+        scanComment();
       } else {
-        return new RightAngle(pos++);
+        token(pairs[i], 2);
       }
-    } else if (c == '~' && (pos + 1) < input.length()
-        && input.charAt(pos + 1) == '=') {
-      pos += 2;
-      return new TypeEquals(pos - 2);
-    } else if (c == UC_LESSEQUALS) {
-      return new LessEquals("" + UC_LESSEQUALS, pos++);
-    } else if (c == UC_GREATEREQUALS) {
-      return new GreaterEquals("" + UC_GREATEREQUALS, pos++);
-    } else if (c == UC_SETUNION) {
-      return new Union("" + UC_SETUNION, pos++);
-    } else if (c == UC_SETINTERSECTION) {
-      return new Intersection("" + UC_SETINTERSECTION, pos++);
-    } else if (c == UC_ELEMENTOF) {
-      return new ElemOf("" + UC_ELEMENTOF, pos++);
-    } else if (c == UC_SUBSET) {
-      return new Subset("" + UC_SUBSET, pos++);
-    } else if (c == UC_SUBSETEQ) {
-      return new SubsetEquals("" + UC_SUBSETEQ, pos++);
-    } else if (c == UC_SUPSET) {
-      return new Supset("" + UC_SUPSET, pos++);
-    } else if (c == UC_SUPSETEQ) {
-      return new SupsetEquals("" + UC_SUPSETEQ, pos++);
-    } else if (c == UC_EMPTYSET) {
-      return new EmptySet("" + UC_EMPTYSET, pos++);
-    } else if (c == UC_LOGICALOR) {
-      return new LogicalOr("" + UC_LOGICALOR, pos++);
-    } else if (c == UC_LOGICALAND) {
-      return new LogicalAnd("" + UC_LOGICALAND, pos++);
+    } else if (operators[i] >= 0) {
+      token(operators[i], 1);
+    } else {
+      syntaxError("unknown operator encountered: " + c);
     }
-
-    syntaxError("unknown operator encountered: " + c);
-    return null;
   }
 
   public boolean isIdentifierStart(char c) {
     return Character.isJavaIdentifierStart(c);
   }
 
-  public static final String[] keywords = { "true", "false", "null", "int",
-      "real", "char", "string", "bool", "process", "void", "if", "while", "else",
-      "where", "requires", "ensures", "as", "for", "assert", "debug", "print",
-      "return", "define", "function", "import", "package", "public", "extern", 
-      "spawn" };
+  /**
+   * The keyword table is a perfect hash of the keywords and the textual
+   * operators, mapping each to its kind. An identifier's slot is found by
+   * multiplying its hash code by KEYWORD_MULTIPLIER and keeping the top bits;
+   * the multiplier is chosen when the class is loaded, as the first for
+   * which no two words share a slot. Hence, an identifier can only be the
+   * word in its slot.
+   */
+  private static final int KEYWORD_BITS = 7;
+  private static final String[] keywords = new String[1 << KEYWORD_BITS];
+  private static final int[] keywordKinds = new int[1 << KEYWORD_BITS];
+  private static final int KEYWORD_MULTIPLIER;
+  private static final int KEYWORD_LENGTH;
+
+  static {
+    String[] words = Arrays.copyOf(KEYWORDS, KEYWORDS.length + 3);
+    words[KEYWORDS.length] = "in";
+    words[KEYWORDS.length + 1] = "no";
+    words[KEYWORDS.length + 2] = "some";
+    int[] kinds = new int[words.length];
+    int longest = 0;
+    for (int i = 0; i != KEYWORDS.length; ++i) {
+      kinds[i] = TRUE + i;
+      longest = Math.max(longest, KEYWORDS[i].length());
+    }
+    kinds[KEYWORDS.length] = ELEM_OF;
+    kinds[KEYWORDS.length + 1] = NONE;
+    kinds[KEYWORDS.length + 2] = SOME;
+
+    int multiplier = 1;
+    search: for (;; multiplier += 2) {
+      Arrays.fill(keywords, null);
+      for (int i = 0; i != words.length; ++i) {
+        int slot = keywordSlot(words[i].hashCode(), multiplier);
+        if (keywords[slot] != null) {
+          continue search;
+        }
+        keywords[slot] = words[i];
+        keywordKinds[slot] = kinds[i];
+      }
+      break;
+    }
+    KEYWORD_MULTIPLIER = multiplier;
+    KEYWORD_LENGTH = longest;
+  }
+
+  private static int keywordSlot(int hash, int multiplier) {
+    return (hash * multiplier) >>> (32 - KEYWORD_BITS);
+  }
 
-  public Token scanIdentifier() {
+  public void scanIdentifier() {
     int start = pos;
-    while (pos < input.length()
-        && Character.isJavaIdentifierPart(input.charAt(pos))) {
+    int hash = 0;
+    char c;
+    while (pos < length && Character.isJavaIdentifierPart(c = input[pos])) {
+      hash = 31 * hash + c;
       pos++;
     }
-    String text = input.substring(start, pos);
 
-    // now, check for keywords
-    for (String keyword : keywords) {
-      if (keyword.equals(text)) {
-        return new Keyword(text, start);
+    // now, check for keywords and text operators
+    if (pos - start <= KEYWORD_LENGTH) {
+      int slot = keywordSlot(hash, KEYWORD_MULTIPLIER);
+      if (keywords[slot] != null && matches(keywords[slot], start, pos)) {
+        tokens.add(keywordKinds[slot], start, pos, 0);
+        return;
       }
     }
 
-    // now, check for text operators
-    if (text.equals("in")) {
-      return new ElemOf(text, start);
-    } else if (text.equals("no")) {
-      return new None(text, start);
-    } else if (text.equals("some")) {
-      return new Some(text, start);
-    }
-
     // otherwise, must be identifier
-    return new Identifier(text, start);
+    tokens.add(IDENTIFIER, start, pos, tokens.symbol(start, pos, hash));
   }
 
-  public Token scanTabs() {
+  /**
+   * Check whether the input between the given positions is the given text,
+   * without creating a string for it.
+   */
+  private boolean matches(String text, int start, int end) {
+    if (text.length() != end - start) {
+      return false;
+    }
+    for (int i = 0; i != text.length(); ++i) {
+      if (text.charAt(i) != input[start + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public void scanTabs() {
     int start = pos;
     int ntabs = 0;
-    while (pos < input.length() && input.charAt(pos) == '\t') {
+    while (pos < length && input[pos] == '\t') {
       pos++;
       ntabs++;
     }
-    return new Tabs(input.substring(start, pos), ntabs, start);
+    tokens.add(TABS, start, pos, ntabs);
   }
 
-  public void skipWhitespace(List<Token> tokens) {
+  public void skipWhitespace() {
     int start = pos;
-    while (pos < input.length() && input.charAt(pos) != '\n'
-        && input.charAt(pos) == ' ') {
+    while (pos < length && input[pos] != '\n'
+        && input[pos] == ' ') {
       pos++;
     }
     int ts = (pos - start) / 4;
     if (ts > 0) {
-      tokens.add(new Tabs(input.substring(start, pos), ts, start));
+      tokens.add(TABS, start, pos, ts);
     }
-    while (pos < input.length() && input.charAt(pos) != '\n'
-        && Character.isWhitespace(input.charAt(pos))) {
+    while (pos < length && input[pos] != '\n'
+        && Character.isWhitespace(input[pos])) {
       pos++;
     }
   }
@@ -440,406 +662,4 @@ public class Lexer {
   private void syntaxError(String msg) {
     throw new SyntaxError(msg, filename, pos, pos);
   }
-
-  public static abstract class Token {
-
-    public final String text;
-    public final int start;
-
-    public Token(String text, int pos) {
-      this.text = text;
-      this.start = pos;
-    }
-
-    public int end() {
-      return start + text.length() - 1;
-    }
-  }
-
-  public static class Real extends Token {
-
-    public final double value;
-
-    public Real(double r, String text, int pos) {
-      super(text, pos);
-      value = r;
-    }
-  }
-
-  public static class Int extends Token {
-
-    public final int value;
-
-    public Int(int r, String text, int pos) {
-      super(text, pos);
-      value = r;
-    }
-  }
-
-  public static class Char extends Token {
-
-    public final char value;
-
-    public Char(char c, String text, int pos) {
-      super(text, pos);
-      value = c;
-    }
-  }
-
-  public static class Identifier extends Token {
-
-    public Identifier(String text, int pos) {
-      super(text, pos);
-    }
-  }
-
-  public static class Strung extends Token {
-
-    public final String string;
-
-    public Strung(String string, String text, int pos) {
-      super(text, pos);
-      this.string = string;
-    }
-  }
-
-  public static class Keyword extends Token {
-
-    public Keyword(String text, int pos) {
-      super(text, pos);
-    }
-  }
-
-  public static class NewLine extends Token {
-
-    public NewLine(int pos) {
-      super("\n", pos);
-    }
-  }
-
-  public static class Tabs extends Token {
-
-    public int ntabs;
-
-    public Tabs(String text, int ntabs, int pos) {
-      super(text, pos);
-      this.ntabs = ntabs;
-    }
-  }
-
-  public static class Comment extends Token {
-
-    public Comment(String text, int pos) {
-      super(text, pos);
-    }
-  }
-
-  public static class Comma extends Token {
-
-    public Comma(int pos) {
-      super(",", pos);
-    }
-  }
-
-  public static class Colon extends Token {
-
-    public Colon(int pos) {
-      super(":", pos);
-    }
-  }
-
-  public static class SemiColon extends Token {
-
-    public SemiColon(int pos) {
-      super(";", pos);
-    }
-  }
-
-  public static class LeftBrace extends Token {
-
-    public LeftBrace(int pos) {
-      super("(", pos);
-    }
-  }
-
-  public static class RightBrace extends Token {
-
-    public RightBrace(int pos) {
-      super(")", pos);
-    }
-  }
-
-  public static class LeftSquare extends Token {
-
-    public LeftSquare(int pos) {
-      super("[", pos);
-    }
-  }
-
-  public static class RightSquare extends Token {
-
-    public RightSquare(int pos) {
-      super("]", pos);
-    }
-  }
-
-  public static class LeftAngle extends Token {
-
-    public LeftAngle(int pos) {
-      super("<", pos);
-    }
-  }
-
-  public static class RightAngle extends Token {
-
-    public RightAngle(int pos) {
-      super(">", pos);
-    }
-  }
-
-  public static class LeftCurly extends Token {
-
-    public LeftCurly(int pos) {
-      super("{", pos);
-    }
-  }
-
-  public static class RightCurly extends Token {
-
-    public RightCurly(int pos) {
-      super("}", pos);
-    }
-  }
-
-  public static class Plus extends Token {
-
-    public Plus(int pos) {
-      super("+", pos);
-    }
-  }
-
-  public static class Minus extends Token {
-
-    public Minus(int pos) {
-      super("-", pos);
-    }
-  }
-
-  public static class Star extends Token {
-
-    public Star(int pos) {
-      super("*", pos);
-    }
-  }
-
-  public static class LeftSlash extends Token {
-
-    public LeftSlash(int pos) {
-      super("\\", pos);
-    }
-  }
-
-  public static class RightSlash extends Token {
-
-    public RightSlash(int pos) {
-      super("/", pos);
-    }
-  }
-
-  public static class Shreak extends Token {
-
-    public Shreak(int pos) {
-      super("!", pos);
-    }
-  }
-
-  public static class Question extends Token {
-
-    public Question(int pos) {
-      super("?", pos);
-    }
-  }
-
-  public static class Dot extends Token {
-
-    public Dot(int pos) {
-      super(".", pos);
-    }
-  }
-
-  public static class DotDot extends Token {
-
-    public DotDot(int pos) {
-      super("..", pos);
-    }
-  }
-
-  public static class Bar extends Token {
-
-    public Bar(int pos) {
-      super("|", pos);
-    }
-  }
-
-  public static class Equals extends Token {
-
-    public Equals(int pos) {
-      super("=", pos);
-    }
-  }
-
-  public static class EqualsEquals extends Token {
-
-    public EqualsEquals(int pos) {
-      super("==", pos);
-    }
-  }
-
-  public static class NotEquals extends Token {
-
-    public NotEquals(String text, int pos) {
-      super(text, pos);
-    }
-  }
-
-  public static class LessEquals extends Token {
-
-    public LessEquals(String text, int pos) {
-      super(text, pos);
-    }
-  }
-
-  public static class GreaterEquals extends Token {
-
-    public GreaterEquals(String text, int pos) {
-      super(text, pos);
-    }
-  }
-
-  public static class TypeEquals extends Token {
-
-    public TypeEquals(int pos) {
-      super("~=", pos);
-    }
-  }
-
-  public static class None extends Token {
-
-    public None(String text, int pos) {
-      super(text, pos);
-    }
-  }
-
-  public static class Some extends Token {
-
-    public Some(String text, int pos) {
-      super(text, pos);
-    }
-  }
-
-  public static class ElemOf extends Token {
-
-    public ElemOf(String text, int pos) {
-      super(text, pos);
-    }
-  }
-
-  public static class Union extends Token {
-
-    public Union(String text, int pos) {
-      super(text, pos);
-    }
-  }
-
-  public static class Intersection extends Token {
-
-    public Intersection(String text, int pos) {
-      super(text, pos);
-    }
-  }
-
-  public static class EmptySet extends Token {
-
-    public EmptySet(String text, int pos) {
-      super(text, pos);
-    }
-  }
-
-  public static class Subset extends Token {
-
-    public Subset(String text, int pos) {
-      super(text, pos);
-    }
-  }
-
-  public static class Supset extends Token {
-
-    public Supset(String text, int pos) {
-      super(text, pos);
-    }
-  }
-
-  public static class SubsetEquals extends Token {
-
-    public SubsetEquals(String text, int pos) {
-      super(text, pos);
-    }
-  }
-
-  public static class SupsetEquals extends Token {
-
-    public SupsetEquals(String text, int pos) {
-      super(text, pos);
-    }
-  }
-
-  public static class LogicalAnd extends Token {
-
-    public LogicalAnd(String text, int pos) {
-      super(text, pos);
-    }
-  }
-
-  public static class LogicalOr extends Token {
-
-    public LogicalOr(String text, int pos) {
-      super(text, pos);
-    }
-  }
-
-  public static class LogicalNot extends Token {
-
-    public LogicalNot(String text, int pos) {
-      super(text, pos);
-    }
-  }
-
-  public static class AddressOf extends Token {
-
-    public AddressOf(String text, int pos) {
-      super(text, pos);
-    }
-  }
-
-  public static class BitwiseOr extends Token {
-
-    public BitwiseOr(String text, int pos) {
-      super(text, pos);
-    }
-  }
-
-  public static class BitwiseNot extends Token {
-
-    public BitwiseNot(String text, int pos) {
-      super(text, pos);
-    }
-  }
-
-  public static class Arrow extends Token {
-
-    public Arrow(String text, int pos) {
-      super(text, pos);
-    }
-  }
-
 }
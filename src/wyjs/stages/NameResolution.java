@@ -34,6 +34,25 @@ public class NameResolution {
   private Module srcfile;
   private ModuleLoader loader;
 
+  /**
+   * The dependencies map records, for each module resolved, the other
+   * modules which its names were resolved to.
+   */
+  private final HashMap<ModuleID, HashSet<ModuleID>> dependencies =
+      new HashMap<ModuleID, HashSet<ModuleID>>();
+
+  /**
+   * The names map caches, for the module being resolved, the module which
+   * each name was resolved to. Since a module's imports are fixed, the same
+   * name always resolves the same way, and the loader need only search the
+   * imports for it once. (A name which cannot be resolved is an error, which
+   * ends the module's resolution, so there is no need to cache failures.)
+   */
+  private final HashMap<String, ModuleID> names =
+      new HashMap<String, ModuleID>();
+  private int hits;
+  private int misses;
+
   public NameResolution(ModuleLoader loader) {
     this.loader = loader;
   }
@@ -44,10 +63,48 @@ public class NameResolution {
     }
   }
 
+  /**
+   * Get the modules which names in the given module were resolved to, not
+   * including the module itself.
+   * 
+   * @param mid A module previously resolved by this name resolver.
+   * @return
+   */
+  public Set<ModuleID> dependencies(ModuleID mid) {
+    HashSet<ModuleID> deps = dependencies.get(mid);
+    if (deps == null) {
+      return Collections.emptySet();
+    }
+    return deps;
+  }
+
+  /**
+   * Get the number of names in the module last resolved which were found in
+   * the cache of names already resolved.
+   * 
+   * @return
+   */
+  public int hits() {
+    return hits;
+  }
+
+  /**
+   * Get the number of names in the module last resolved which had to be
+   * resolved by searching its imports.
+   * 
+   * @return
+   */
+  public int misses() {
+    return misses;
+  }
+
   public void resolve(Module wf) {
     ArrayList<PkgID> imports = new ArrayList<PkgID>();
 
     srcfile = wf;
+    dependencies.put(wf.id(), new HashSet<ModuleID>());
+    names.clear();
+    hits = misses = 0;
 
     imports.add(srcfile.id().pkg().append(srcfile.id().module()));
     imports.add(srcfile.id().pkg().append("*"));
@@ -58,6 +115,7 @@ public class NameResolution {
         if (d instanceof ImportDecl) {
           ImportDecl impd = (ImportDecl) d;
           imports.add(0, new PkgID(impd.pkg));
+          names.clear();
         } else if (d instanceof FunDecl) {
           resolve((FunDecl) d, imports);
         } else if (d instanceof TypeDecl) {
@@ -72,7 +130,7 @@ public class NameResolution {
   }
 
   protected void resolve(ConstDecl td, ArrayList<PkgID> imports) {
-    resolve(td.constant, new HashSet<String>(), imports);
+    resolve(td.constant, new Scope(null), imports);
   }
 
   protected void resolve(TypeDecl td, ArrayList<PkgID> imports)
@@ -86,7 +144,7 @@ public class NameResolution {
   }
 
   protected void resolve(FunDecl fd, ArrayList<PkgID> imports) {
-    HashSet<String> environment = new HashSet<String>();
+    Scope environment = new Scope(null);
 
     // method parameter types
     for (Module.Parameter p : fd.parameters) {
@@ -113,7 +171,7 @@ public class NameResolution {
     }
   }
 
-  public void resolve(Stmt s, HashSet<String> environment,
+  public void resolve(Stmt s, Scope environment,
       ArrayList<PkgID> imports) {
     try {
       if (s instanceof Assign) {
@@ -144,7 +202,7 @@ public class NameResolution {
     }
   }
 
-  protected void resolve(Assign s, HashSet<String> environment,
+  protected void resolve(Assign s, Scope environment,
       ArrayList<PkgID> imports) {
     if (s.lhs instanceof Variable) {
       Variable v = (Variable) s.lhs;
@@ -165,54 +223,49 @@ public class NameResolution {
     resolve(s.rhs, environment, imports);
   }
 
-  protected void resolve(Assert s, HashSet<String> environment,
+  protected void resolve(Assert s, Scope environment,
       ArrayList<PkgID> imports) {
     resolve(s.expr, environment, imports);
   }
 
-  protected void resolve(Return s, HashSet<String> environment,
+  protected void resolve(Return s, Scope environment,
       ArrayList<PkgID> imports) {
     if (s.expr != null) {
       resolve(s.expr, environment, imports);
     }
   }
 
-  protected void resolve(Debug s, HashSet<String> environment,
+  protected void resolve(Debug s, Scope environment,
       ArrayList<PkgID> imports) {
     resolve(s.expr, environment, imports);
   }
 
-  protected void resolve(IfElse s, HashSet<String> environment,
+  protected void resolve(IfElse s, Scope environment,
       ArrayList<PkgID> imports) {
     resolve(s.condition, environment, imports);
-    HashSet<String> tenv = new HashSet<String>(environment);
+    Scope tenv = new Scope(environment);
     for (Stmt st : s.trueBranch) {
       resolve(st, tenv, imports);
     }
     if (s.falseBranch != null) {
-      HashSet<String> fenv = new HashSet<String>(environment);
+      // variables defined in the false branch remain in scope after the
+      // conditional, whilst those defined only in the true branch do not.
       for (Stmt st : s.falseBranch) {
         resolve(st, environment, imports);
       }
-
-      for (String p : tenv) {
-        if (fenv.contains(p)) {
-          environment.add(p);
-        }
-      }
     }
   }
 
-  protected void resolve(While s, HashSet<String> environment,
+  protected void resolve(While s, Scope environment,
       ArrayList<PkgID> imports) {
     resolve(s.condition, environment, imports);
-    environment = new HashSet<String>(environment);
+    environment = new Scope(environment);
     for (Stmt st : s.body) {
       resolve(st, environment, imports);
     }
   }
 
-  protected void resolve(For s, HashSet<String> environment,
+  protected void resolve(For s, Scope environment,
       ArrayList<PkgID> imports) {
     resolve(s.source, environment, imports);
 
@@ -220,14 +273,14 @@ public class NameResolution {
       syntaxError("variable " + s.variable + " is alreaded defined",
           srcfile.filename, s);
     }
-    environment = new HashSet<String>(environment);
+    environment = new Scope(environment);
     environment.add(s.variable);
     for (Stmt st : s.body) {
       resolve(st, environment, imports);
     }
   }
 
-  protected void resolve(Expr e, HashSet<String> environment,
+  protected void resolve(Expr e, Scope environment,
       ArrayList<PkgID> imports) {
     try {
       if (e instanceof Constant) {
@@ -274,7 +327,7 @@ public class NameResolution {
     }
   }
 
-  protected void resolve(Invoke ivk, HashSet<String> environment,
+  protected void resolve(Invoke ivk, Scope environment,
       ArrayList<PkgID> imports) throws ResolveError {
 
     for (Expr e : ivk.arguments) {
@@ -287,12 +340,13 @@ public class NameResolution {
     }
 
     if (!environment.contains(ivk.name)) {
-      ModuleID mid = loader.resolve(ivk.name, imports);
+      ModuleID mid = lookup(ivk.name, imports);
+      depend(mid);
       ivk.attributes().add(new Attribute.Module(mid));
     }
   }
 
-  protected void resolve(Variable v, HashSet<String> environment,
+  protected void resolve(Variable v, Scope environment,
       ArrayList<PkgID> imports) throws ResolveError {
 
     if (!environment.contains(v.var)) {
@@ -301,12 +355,13 @@ public class NameResolution {
       // is, and then store that information for future use.
 
       // FIXME: needed for proper namespacing
-      ModuleID mid = loader.resolve(v.var, imports);
+      ModuleID mid = lookup(v.var, imports);
+      depend(mid);
       v.attributes().add(new Attribute.Module(mid));
     }
   }
 
-  protected void resolve(FunConst v, HashSet<String> environment,
+  protected void resolve(FunConst v, Scope environment,
       ArrayList<PkgID> imports) throws ResolveError {
 
     for (Decl d : srcfile.declarations) {
@@ -321,33 +376,33 @@ public class NameResolution {
     }
   }
 
-  protected void resolve(UnOp v, HashSet<String> environment,
+  protected void resolve(UnOp v, Scope environment,
       ArrayList<PkgID> imports) throws ResolveError {
     resolve(v.mhs, environment, imports);
   }
 
-  protected void resolve(BinOp v, HashSet<String> environment,
+  protected void resolve(BinOp v, Scope environment,
       ArrayList<PkgID> imports) {
     resolve(v.lhs, environment, imports);
     resolve(v.rhs, environment, imports);
   }
 
-  protected void resolve(Access v, HashSet<String> environment,
+  protected void resolve(Access v, Scope environment,
       ArrayList<PkgID> imports) {
     resolve(v.src, environment, imports);
     resolve(v.index, environment, imports);
   }
 
-  protected void resolve(NaryOp v, HashSet<String> environment,
+  protected void resolve(NaryOp v, Scope environment,
       ArrayList<PkgID> imports) throws ResolveError {
     for (Expr e : v.arguments) {
       resolve(e, environment, imports);
     }
   }
 
-  protected void resolve(Comprehension e, HashSet<String> environment,
+  protected void resolve(Comprehension e, Scope environment,
       ArrayList<PkgID> imports) throws ResolveError {
-    HashSet<String> nenv = new HashSet<String>(environment);
+    Scope nenv = new Scope(environment);
     for (Pair<String, Expr> me : e.sources) {
       resolve(me.second(), nenv, imports);
       nenv.add(me.first());
@@ -360,21 +415,21 @@ public class NameResolution {
     }
   }
 
-  protected void resolve(RecordGen sg, HashSet<String> environment,
+  protected void resolve(RecordGen sg, Scope environment,
       ArrayList<PkgID> imports) throws ResolveError {
     for (Map.Entry<String, Expr> e : sg.fields.entrySet()) {
       resolve(e.getValue(), environment, imports);
     }
   }
 
-  protected void resolve(TupleGen sg, HashSet<String> environment,
+  protected void resolve(TupleGen sg, Scope environment,
       ArrayList<PkgID> imports) throws ResolveError {
     for (Expr e : sg.fields) {
       resolve(e, environment, imports);
     }
   }
 
-  protected void resolve(DictionaryGen sg, HashSet<String> environment,
+  protected void resolve(DictionaryGen sg, Scope environment,
       ArrayList<PkgID> imports) throws ResolveError {
     for (Pair<Expr, Expr> e : sg.pairs) {
       resolve(e.first(), environment, imports);
@@ -382,12 +437,12 @@ public class NameResolution {
     }
   }
 
-  protected void resolve(TypeConst tc, HashSet<String> environment,
+  protected void resolve(TypeConst tc, Scope environment,
       ArrayList<PkgID> imports) throws ResolveError {
     resolve(tc.type, imports);
   }
 
-  protected void resolve(RecordAccess sg, HashSet<String> environment,
+  protected void resolve(RecordAccess sg, Scope environment,
       ArrayList<PkgID> imports) throws ResolveError {
     resolve(sg.lhs, environment, imports);
   }
@@ -419,7 +474,8 @@ public class NameResolution {
       // defined in some module (possibly ours), and we need to identify
       // what module that is here, and save it for future use.
       UnresolvedType.Named dt = (UnresolvedType.Named) t;
-      ModuleID mid = loader.resolve(dt.name, imports);
+      ModuleID mid = lookup(dt.name, imports);
+      depend(mid);
       t.attributes().add(new Attribute.Module(mid));
     } else if (t instanceof UnresolvedType.Union) {
       UnresolvedType.Union ut = (UnresolvedType.Union) t;
@@ -428,5 +484,92 @@ public class NameResolution {
       }
     }
   }
-  
+
+  /**
+   * Resolve the given name against the imports of the module being resolved,
+   * using the result of a previous lookup of the same name if there was one.
+   * 
+   * @param name
+   * @param imports
+   * @return
+   * @throws ResolveError if the name couldn't be resolved.
+   */
+  private ModuleID lookup(String name, ArrayList<PkgID> imports)
+      throws ResolveError {
+    ModuleID mid = names.get(name);
+    if (mid != null) {
+      hits++;
+      return mid;
+    }
+    misses++;
+    mid = loader.resolve(name, imports);
+    names.put(name, mid);
+    return mid;
+  }
+
+  /**
+   * Record that the module being resolved depends upon the given module.
+   * 
+   * @param mid
+   */
+  private void depend(ModuleID mid) {
+    if (!mid.equals(srcfile.id())) {
+      dependencies.get(srcfile.id()).add(mid);
+    }
+  }
+
+  /**
+   * A scope holds the variables declared in one block of a function, and
+   * refers to the scope of the enclosing block, whose variables are also
+   * visible. Entering a block therefore creates an empty scope, rather than
+   * copying every variable declared so far, and a variable is looked up by
+   * walking outwards through the enclosing scopes.
+   * 
+   * @author David Pearce
+   */
+  public static final class Scope {
+
+    private final Scope parent;
+    private HashSet<String> variables;
+
+    /**
+     * Construct an empty scope nested within the given scope.
+     * 
+     * @param parent The enclosing scope, or null for a function's outermost
+     *          scope.
+     */
+    public Scope(Scope parent) {
+      this.parent = parent;
+    }
+
+    /**
+     * Declare a variable in this scope.
+     * 
+     * @param variable
+     */
+    public void add(String variable) {
+      if (!contains(variable)) {
+        if (variables == null) {
+          variables = new HashSet<String>();
+        }
+        variables.add(variable);
+      }
+    }
+
+    /**
+     * Determine whether a variable is declared in this scope, or in any
+     * scope enclosing it.
+     * 
+     * @param variable
+     * @return
+     */
+    public boolean contains(String variable) {
+      for (Scope s = this; s != null; s = s.parent) {
+        if (s.variables != null && s.variables.contains(variable)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
 }
@@ -18,12 +18,19 @@
 
 package wyjs.stages;
 
+import static wyjs.stages.TokenStream.*;
+
 import java.io.File;
+import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import wyjs.lang.Expr;
 import wyjs.lang.Modifier;
@@ -37,47 +44,6 @@ import wyjs.lang.Module.FunDecl;
 import wyjs.lang.Module.ImportDecl;
 import wyjs.lang.Module.Parameter;
 import wyjs.lang.Module.TypeDecl;
-import wyjs.stages.Lexer.AddressOf;
-import wyjs.stages.Lexer.Arrow;
-import wyjs.stages.Lexer.Bar;
-import wyjs.stages.Lexer.Colon;
-import wyjs.stages.Lexer.Comma;
-import wyjs.stages.Lexer.Comment;
-import wyjs.stages.Lexer.Dot;
-import wyjs.stages.Lexer.DotDot;
-import wyjs.stages.Lexer.ElemOf;
-import wyjs.stages.Lexer.EmptySet;
-import wyjs.stages.Lexer.Equals;
-import wyjs.stages.Lexer.EqualsEquals;
-import wyjs.stages.Lexer.GreaterEquals;
-import wyjs.stages.Lexer.Identifier;
-import wyjs.stages.Lexer.Int;
-import wyjs.stages.Lexer.Intersection;
-import wyjs.stages.Lexer.Keyword;
-import wyjs.stages.Lexer.LeftAngle;
-import wyjs.stages.Lexer.LeftBrace;
-import wyjs.stages.Lexer.LeftCurly;
-import wyjs.stages.Lexer.LeftSquare;
-import wyjs.stages.Lexer.LessEquals;
-import wyjs.stages.Lexer.LogicalAnd;
-import wyjs.stages.Lexer.LogicalOr;
-import wyjs.stages.Lexer.Minus;
-import wyjs.stages.Lexer.NewLine;
-import wyjs.stages.Lexer.NotEquals;
-import wyjs.stages.Lexer.Plus;
-import wyjs.stages.Lexer.Question;
-import wyjs.stages.Lexer.Real;
-import wyjs.stages.Lexer.RightAngle;
-import wyjs.stages.Lexer.RightBrace;
-import wyjs.stages.Lexer.RightCurly;
-import wyjs.stages.Lexer.RightSlash;
-import wyjs.stages.Lexer.RightSquare;
-import wyjs.stages.Lexer.Shreak;
-import wyjs.stages.Lexer.Star;
-import wyjs.stages.Lexer.Strung;
-import wyjs.stages.Lexer.Tabs;
-import wyjs.stages.Lexer.Token;
-import wyjs.stages.Lexer.Union;
 import wyjs.util.Attribute;
 import wyjs.util.Pair;
 import wyjs.util.ParseError;
@@ -86,73 +52,257 @@ import wyjs.util.SyntaxError;
 public class Parser {
 
   private String filename;
-  private ArrayList<Token> tokens;
+  private TokenStream tokens;
   private int index;
+  private int nodes;
+
+  /**
+   * Set once a declaration other than an import has been parsed, after which
+   * no more imports are allowed.
+   */
+  boolean finishedImports = false;
 
-  public Parser(String filename, List<Token> tokens) {
+  /**
+   * Whether tokens are released once they have been parsed. They cannot be
+   * while other parsers are reading the same stream.
+   */
+  private boolean release = true;
+
+  public Parser(String filename, TokenStream tokens) {
     this.filename = filename;
-    this.tokens = new ArrayList<Token>(tokens);
+    this.tokens = tokens;
   }
 
   public Module read() {
     ArrayList<Decl> decls = new ArrayList<Decl>();
-    boolean finishedImports = false;
     ArrayList<String> pkg = parsePackage();
 
-    while (index < tokens.size()) {
-      Token t = tokens.get(index);
-      if (t instanceof NewLine || t instanceof Comment) {
-        matchEndLine();
-      } else if (t instanceof Keyword) {
-        Keyword k = (Keyword) t;
-        if (k.text.equals("import")) {
-          if (finishedImports) {
-            syntaxError("import statement must come first", k);
-          }
-          decls.add(parseImport());
-        } else {
-          List<Modifier> modifiers = parseModifiers();
+    while (next() >= 0) {
+      decls.add(readDeclaration());
+      // nothing before a declaration is needed again.
+      tokens.release(index);
+    }
 
-          t = tokens.get(index);
+    return module(filename, pkg, decls);
+  }
 
-          if (t.text.equals("define")) {
-            finishedImports = true;
-            decls.add(parseDefType(modifiers));
-          } else {
-            finishedImports = true;
-            decls.add(parseFunction(modifiers));
-          }
+  /**
+   * The fewest tokens worth parsing as a separate chunk.
+   */
+  private static final int CHUNK_TOKENS = 4096;
+
+  /**
+   * Parse the module, splitting its declarations into chunks which are
+   * parsed concurrently on the given executor. The whole file is lexed
+   * first, and then split before declarations starting at column zero.
+   * 
+   * A declaration can still continue onto a line starting at column zero
+   * (say, within a multi-line set), in which case the chunk after it doesn't
+   * start at a declaration. The chunks are put back together in order,
+   * starting each one where the one before it stopped. Where that isn't
+   * where a chunk starts, or where a chunk failed or can't be used as it is
+   * (because it has an import out of place), the declarations are parsed
+   * sequentially until one is reached. Hence, the declarations and any
+   * error are exactly those of read().
+   * 
+   * @param executor
+   * @param threads The number of threads the executor runs tasks on.
+   * @return
+   */
+  public Module read(ExecutorService executor, int threads) {
+    ArrayList<String> pkg = parsePackage();
+
+    int size = index;
+    while (tokens.has(size)) {
+      size++;
+    }
+    int chunkSize = Math.max(CHUNK_TOKENS, size / (threads * 4));
+    if (threads <= 1 || size - index < 2 * chunkSize) {
+      ArrayList<Decl> decls = new ArrayList<Decl>();
+      while (next() >= 0) {
+        decls.add(readDeclaration());
+      }
+      return module(filename, pkg, decls);
+    }
+
+    // The first chunk starts at the first declaration, and each other one
+    // at the first declaration starting at column zero after chunkSize more
+    // tokens.
+    next();
+    ArrayList<Integer> starts = new ArrayList<Integer>();
+    starts.add(index);
+    for (int i = index + chunkSize; i < size; ++i) {
+      int kind = tokens.kind(i);
+      if (tokens.kind(i - 1) == NEWLINE && !isWhiteSpace(kind)) {
+        starts.add(i);
+        i += chunkSize - 1;
+      }
+    }
+    starts.add(size);
+
+    ArrayList<Callable<Chunk>> tasks = new ArrayList<Callable<Chunk>>();
+    for (int i = 0; i < starts.size() - 1; ++i) {
+      final int start = starts.get(i);
+      final int end = starts.get(i + 1);
+      tasks.add(new Callable<Chunk>() {
+
+        public Chunk call() {
+          Parser parser = new Parser(filename, tokens);
+          parser.release = false;
+          parser.index = start;
+          return parser.readChunk(end);
         }
+      });
+    }
+    List<Future<Chunk>> results = Collections.emptyList();
+    try {
+      results = executor.invokeAll(tasks);
+    } catch (InterruptedException e) {
+      // then parse everything here instead.
+      Thread.currentThread().interrupt();
+    }
+
+    release = false;
+    ArrayList<Decl> decls = new ArrayList<Decl>();
+    int i = 0;
+    while (next() >= 0) {
+      while (i < results.size() && starts.get(i) < index) {
+        i++;
+      }
+      Chunk chunk = null;
+      if (i < results.size() && starts.get(i) == index) {
+        chunk = chunk(results.get(i));
+      }
+      if (chunk == null || (chunk.hasImports && finishedImports)) {
+        decls.add(readDeclaration());
       } else {
-        finishedImports = true;
-        decls.add(parseFunction(new ArrayList<Modifier>()));
+        decls.addAll(chunk.decls);
+        finishedImports |= chunk.finishedImports;
+        nodes += chunk.nodes;
+        index = chunk.end;
       }
     }
+    return module(filename, pkg, decls);
+  }
+
+  /**
+   * The declarations parsed from one chunk of a file, along with the token
+   * at which parsing stopped.
+   */
+  private static final class Chunk {
 
+    public final ArrayList<Decl> decls = new ArrayList<Decl>();
+    public boolean hasImports;
+    public boolean finishedImports;
+    public int nodes;
+    public int end;
+  }
+
+  /**
+   * Parse declarations until reaching one which starts at or after the given
+   * token. Any error is left to be found again by the sequential parse.
+   */
+  private Chunk readChunk(int end) {
+    Chunk chunk = new Chunk();
+    try {
+      while (next() >= 0 && index < end) {
+        Decl d = readDeclaration();
+        chunk.hasImports |= d instanceof ImportDecl;
+        chunk.decls.add(d);
+      }
+    } catch (RuntimeException e) {
+      return null;
+    }
+    chunk.finishedImports = finishedImports;
+    chunk.nodes = nodes;
+    chunk.end = index;
+    return chunk;
+  }
+
+  private static Chunk chunk(Future<Chunk> result) {
+    try {
+      return result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      // such as running out of stack; this is also left to be found again.
+    }
+    return null;
+  }
+
+  static Module module(String filename, List<String> pkg, List<Decl> decls) {
     // Now, figure out module name from filename
     String name =
         filename.substring(filename.lastIndexOf(File.separatorChar) + 1,
-            filename.length() - 7);
+            filename.length() - 5);
 
     return new Module(new ModuleID(pkg, name), filename, decls);
   }
 
-  private ArrayList<String> parsePackage() {
+  /**
+   * Skip any blank lines and comments before the next top-level declaration.
+   * 
+   * @return The position of the declaration's first character, or -1 if
+   *         there are no more declarations.
+   */
+  int next() {
+    while (tokens.has(index)) {
+      int t = tokens.kind(index);
+      if (t == NEWLINE || t == COMMENT) {
+        matchEndLine();
+      } else {
+        return tokens.start(index);
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Parse the top-level declaration which starts at the current token.
+   * 
+   * @return
+   */
+  Decl readDeclaration() {
+    int t = tokens.kind(index);
+    if (isKeyword(t)) {
+      if (t == IMPORT) {
+        if (finishedImports) {
+          syntaxError("import statement must come first", index);
+        }
+        return parseImport();
+      }
+
+      List<Modifier> modifiers = parseModifiers();
+
+      t = tokens.kind(index);
+
+      finishedImports = true;
+      if (t == DEFINE) {
+        return parseDefType(modifiers);
+      } else {
+        return parseFunction(modifiers);
+      }
+    }
+    finishedImports = true;
+    return parseFunction(new ArrayList<Modifier>());
+  }
 
-    while (index < tokens.size()
-        && (tokens.get(index) instanceof Comment || tokens.get(index) instanceof NewLine)) {
+  ArrayList<String> parsePackage() {
+
+    while (tokens.has(index)
+        && (tokens.kind(index) == COMMENT || tokens.kind(index) == NEWLINE)) {
       parseSkip();
     }
 
-    if (index < tokens.size() && tokens.get(index).text.equals("package")) {
-      matchKeyword("package");
+    if (tokens.has(index) && tokens.kind(index) == PACKAGE) {
+      matchKeyword(PACKAGE);
 
       ArrayList<String> pkg = new ArrayList<String>();
-      pkg.add(matchIdentifier().text);
+      pkg.add(tokens.string(matchIdentifier()));
 
-      while (index < tokens.size() && tokens.get(index) instanceof Dot) {
-        match(Dot.class);
-        pkg.add(matchIdentifier().text);
+      while (tokens.has(index) && tokens.kind(index) == DOT) {
+        match(DOT);
+        pkg.add(tokens.string(matchIdentifier()));
       }
 
       matchEndLine();
@@ -164,20 +314,19 @@ public class Parser {
 
   private ImportDecl parseImport() {
     int start = index;
-    matchKeyword("import");
+    matchKeyword(IMPORT);
 
     ArrayList<String> pkg = new ArrayList<String>();
-    pkg.add(matchIdentifier().text);
-
-    while (index < tokens.size() && tokens.get(index) instanceof Dot) {
-      match(Dot.class);
-      if (index < tokens.size()) {
-        Token t = tokens.get(index);
-        if (t.text.equals("*")) {
-          match(Star.class);
+    pkg.add(tokens.string(matchIdentifier()));
+
+    while (tokens.has(index) && tokens.kind(index) == DOT) {
+      match(DOT);
+      if (tokens.has(index)) {
+        if (tokens.kind(index) == STAR) {
+          match(STAR);
           pkg.add("*");
         } else {
-          pkg.add(matchIdentifier().text);
+          pkg.add(tokens.string(matchIdentifier()));
         }
       }
     }
@@ -192,28 +341,31 @@ public class Parser {
     int start = index;
 
     UnresolvedType ret = parseType();
-    Identifier name = matchIdentifier();
+    int name = matchIdentifier();
 
-    match(LeftBrace.class);
+    match(LEFT_BRACE);
 
     // Now build up the parameter types
     List<Parameter> paramTypes = new ArrayList<Parameter>();
     boolean firstTime = true;
-    while (index < tokens.size() && !(tokens.get(index) instanceof RightBrace)) {
+    while (tokens.has(index) && tokens.kind(index) != RIGHT_BRACE) {
       if (!firstTime) {
-        match(Comma.class);
+        match(COMMA);
       }
       firstTime = false;
       int pstart = index;
       UnresolvedType t = parseType();
-      Identifier n = matchIdentifier();
-      paramTypes.add(new Parameter(t, n.text, sourceAttr(pstart, index - 1)));
+      int n = matchIdentifier();
+      paramTypes.add(new Parameter(t, tokens.string(n), sourceAttr(pstart, index - 1)));
     }
 
-    match(RightBrace.class);
-    match(Colon.class);
+    match(RIGHT_BRACE);
+    match(COLON);
     int end = index;
     matchEndLine();
+    // the header's tokens are released while the body is parsed.
+    Attribute.Source source = sourceAttr(start, end - 1);
+    String fname = tokens.string(name);
     List<Stmt> stmts;
     if (modifiers.contains(Modifier.EXTERN)) {
       // this indicates an external method
@@ -222,17 +374,16 @@ public class Parser {
       stmts = parseBlock(1);
     }
 
-    return new FunDecl(modifiers, name.text, ret, paramTypes, stmts,
-        sourceAttr(start, end - 1));
+    return new FunDecl(modifiers, fname, ret, paramTypes, stmts, source);
   }
 
   private Decl parseDefType(List<Modifier> modifiers) {
     int start = index;
-    matchKeyword("define");
+    matchKeyword(DEFINE);
 
-    Identifier name = matchIdentifier();
+    int name = matchIdentifier();
 
-    matchKeyword("as");
+    matchKeyword(AS);
 
     int mid = index;
 
@@ -244,7 +395,7 @@ public class Parser {
       UnresolvedType t = parseType();
       int end = index;
       matchEndLine();
-      return new TypeDecl(modifiers, t, name.text, sourceAttr(start, end - 1));
+      return new TypeDecl(modifiers, t, tokens.string(name), sourceAttr(start, end - 1));
 
     } catch (Exception e) {}
 
@@ -254,16 +405,15 @@ public class Parser {
     Expr e = parseCondition();
     int end = index;
     matchEndLine();
-    return new ConstDecl(modifiers, e, name.text, sourceAttr(start, end - 1));
+    return new ConstDecl(modifiers, e, tokens.string(name), sourceAttr(start, end - 1));
   }
 
   private List<Modifier> parseModifiers() {
     ArrayList<Modifier> mods = new ArrayList<Modifier>();
-    Token lookahead;
-    while (index < tokens.size() && isModifier((lookahead = tokens.get(index)))) {
-      if (lookahead.text.equals("public")) {
+    while (tokens.has(index) && isModifier(index)) {
+      if (tokens.kind(index) == PUBLIC) {
         mods.add(Modifier.PUBLIC);
-      } else if (lookahead.text.equals("extern")) {
+      } else if (tokens.kind(index) == EXTERN) {
         mods.add(Modifier.EXTERN);
       }
       index = index + 1;
@@ -271,26 +421,22 @@ public class Parser {
     return mods;
   }
 
-  public String[] modifiers = { "public", "extern", "visible" };
-
-  public boolean isModifier(Token tok) {
-    for (String m : modifiers) {
-      if (tok.text.equals(m)) {
-        return true;
-      }
-    }
-    return false;
+  public boolean isModifier(int token) {
+    int kind = tokens.kind(token);
+    return kind == PUBLIC || kind == EXTERN
+        || (kind == IDENTIFIER && tokens.string(token).equals("visible"));
   }
 
   private List<Stmt> parseBlock(int indent) {
-    Tabs tabs = null;
-
-    tabs = getIndent();
+    int tabs = getIndent();
 
     ArrayList<Stmt> stmts = new ArrayList<Stmt>();
-    while (tabs != null && tabs.ntabs == indent) {
+    while (tabs == indent) {
       index = index + 1;
       stmts.add(parseStatement(indent));
+      if (release) {
+        tokens.release(index);
+      }
       tabs = getIndent();
     }
 
@@ -298,12 +444,10 @@ public class Parser {
   }
 
   private List<Stmt> parseExternalBlock(int indent) {
-    Tabs tabs = null;
-
-    tabs = getIndent();
+    int tabs = getIndent();
 
     ArrayList<Stmt> stmts = new ArrayList<Stmt>();
-    while (tabs != null && tabs.ntabs == indent) {
+    while (tabs == indent) {
       index = index + 1;
       String jsString = parseJSLine();
       stmts.add(new Stmt.ExternJS(jsString));
@@ -313,59 +457,65 @@ public class Parser {
     return stmts;
   }
 
-  private Tabs getIndent() {
+  /**
+   * Get the indentation of the current line, or -1 if the current token is
+   * not an indentation.
+   */
+  private int getIndent() {
     // FIXME: there's still a bug here for empty lines with arbitrary tabs
-    if (index < tokens.size() && tokens.get(index) instanceof Tabs) {
-      return (Tabs) tokens.get(index);
-    } else if (index < tokens.size() && tokens.get(index) instanceof Comment) {
+    if (tokens.has(index) && tokens.kind(index) == TABS) {
+      return tokens.value(index);
+    } else if (tokens.has(index) && tokens.kind(index) == COMMENT) {
       // This indicates a completely empty line. In which case, we just
       // ignore it.
       matchEndLine();
       return getIndent();
     } else {
-      return null;
+      return -1;
     }
   }
 
   private String parseJSLine() {
     String line = "";
-    Token t = null;
+    int t;
     int last = Integer.MAX_VALUE; // last column
-    while (index < tokens.size()
-        && !((t = tokens.get(index++)) instanceof NewLine)) {
-      while (t.start > last) {
+    while (tokens.has(index) && tokens.kind(t = index++) != NEWLINE) {
+      while (tokens.start(t) > last) {
         line += " ";
         last++;
       }
-      line += t.text;
-      last = t.end() + 1;
+      line += tokens.text(t);
+      last = tokens.end(t) + 1;
     }
     return line;
   }
 
   private Stmt parseStatement(int indent) {
     checkNotEof();
-    Token token = tokens.get(index);
+    int token = tokens.kind(index);
 
-    if (token.text.equals("return")) {
+    switch (token) {
+    case RETURN:
       return parseReturn();
-    } else if (token.text.equals("assert")) {
+    case ASSERT:
       return parseAssert();
-    } else if (token.text.equals("print")) {
+    case PRINT:
       return parsePrint();
-    } else if (token.text.equals("if")) {
+    case IF:
       return parseIf(indent);
-    } else if (token.text.equals("while")) {
+    case WHILE:
       return parseWhile(indent);
-    } else if (token.text.equals("for")) {
+    case FOR:
       return parseFor(indent);
-    } else if ((index + 1) < tokens.size()
-        && tokens.get(index + 1) instanceof LeftBrace) {
+    }
+
+    if (tokens.has(index + 1)
+        && tokens.kind(index + 1) == LEFT_BRACE) {
       // must be a method invocation
       return parseInvokeStmt();
-    } else if (token instanceof NewLine || token instanceof Comment) {
+    } else if (token == NEWLINE || token == COMMENT) {
       return parseSkip();
-    } else if (token.text.equals("extern")) {
+    } else if (token == EXTERN) {
       return parseExtern(indent);
     } else {
       int start = index;
@@ -374,42 +524,42 @@ public class Parser {
         matchEndLine();
         return (Expr.Invoke) t;
       } else {
-        index = start;
-        return parseAssign();
+        // this must be the left-hand side of an assignment.
+        return parseAssign(start, t);
       }
     }
   }
 
   private Expr.Invoke parseInvokeStmt() {
     int start = index;
-    Identifier name = matchIdentifier();
-    match(LeftBrace.class);
+    int name = matchIdentifier();
+    match(LEFT_BRACE);
     boolean firstTime = true;
     ArrayList<Expr> args = new ArrayList<Expr>();
-    while (index < tokens.size() && !(tokens.get(index) instanceof RightBrace)) {
+    while (tokens.has(index) && tokens.kind(index) != RIGHT_BRACE) {
       if (!firstTime) {
-        match(Comma.class);
+        match(COMMA);
       } else {
         firstTime = false;
       }
-      Expr e = parseAddSubExpression();
+      Expr e = parseBinaryExpression(ADDITIVE);
       args.add(e);
 
     }
-    match(RightBrace.class);
+    match(RIGHT_BRACE);
     int end = index;
     matchEndLine();
 
     // no receiver is possible in this case.
-    return new Expr.Invoke(name.text, null, args, sourceAttr(start, end - 1));
+    return new Expr.Invoke(tokens.string(name), null, args, sourceAttr(start, end - 1));
   }
 
   private Stmt parseReturn() {
     int start = index;
-    matchKeyword("return");
+    matchKeyword(RETURN);
     Expr e = null;
-    if (index < tokens.size()
-        && !(tokens.get(index) instanceof NewLine || tokens.get(index) instanceof Comment)) {
+    if (tokens.has(index)
+        && !(tokens.kind(index) == NEWLINE || tokens.kind(index) == COMMENT)) {
       e = parseTupleExpression();
     }
     int end = index;
@@ -419,7 +569,7 @@ public class Parser {
 
   private Stmt parseAssert() {
     int start = index;
-    matchKeyword("assert");
+    matchKeyword(ASSERT);
     checkNotEof();
     Expr e = parseCondition();
     int end = index;
@@ -435,9 +585,9 @@ public class Parser {
 
   private Stmt parsePrint() {
     int start = index;
-    matchKeyword("print");
+    matchKeyword(PRINT);
     checkNotEof();
-    Expr e = parseAddSubExpression();
+    Expr e = parseBinaryExpression(ADDITIVE);
     int end = index;
     matchEndLine();
     return new Stmt.Debug(e, sourceAttr(start, end - 1));
@@ -445,69 +595,70 @@ public class Parser {
 
   private Stmt parseIf(int indent) {
     int start = index;
-    matchKeyword("if");
+    matchKeyword(IF);
     Expr c = parseCondition();
-    match(Colon.class);
+    match(COLON);
     int end = index;
     matchEndLine();
+    Attribute.Source source = sourceAttr(start, end - 1);
     List<Stmt> tblk = parseBlock(indent + 1);
     List<Stmt> fblk = Collections.emptyList();
 
-    if ((index + 1) < tokens.size() && tokens.get(index) instanceof Tabs) {
-      Tabs ts = (Tabs) tokens.get(index);
-      if (ts.ntabs == indent && tokens.get(index + 1).text.equals("else")) {
-        match(Tabs.class);
-        matchKeyword("else");
+    if (tokens.has(index + 1) && tokens.kind(index) == TABS) {
+      if (tokens.value(index) == indent && tokens.kind(index + 1) == ELSE) {
+        match(TABS);
+        matchKeyword(ELSE);
 
-        if (index < tokens.size() && tokens.get(index).text.equals("if")) {
+        if (tokens.has(index) && tokens.kind(index) == IF) {
           Stmt if2 = parseIf(indent);
           fblk = new ArrayList<Stmt>();
           fblk.add(if2);
         } else {
-          match(Colon.class);
+          match(COLON);
           matchEndLine();
           fblk = parseBlock(indent + 1);
         }
       }
     }
 
-    return new Stmt.IfElse(c, tblk, fblk, sourceAttr(start, end - 1));
+    return new Stmt.IfElse(c, tblk, fblk, source);
   }
 
   private Stmt parseWhile(int indent) {
     int start = index;
-    matchKeyword("while");
+    matchKeyword(WHILE);
     Expr condition = parseCondition();
-    match(Colon.class);
+    match(COLON);
     int end = index;
     matchEndLine();
+    Attribute.Source source = sourceAttr(start, end - 1);
     List<Stmt> blk = parseBlock(indent + 1);
 
-    return new Stmt.While(condition, blk, sourceAttr(start, end - 1));
+    return new Stmt.While(condition, blk, source);
   }
 
   private Stmt parseFor(int indent) {
     int start = index;
-    matchKeyword("for");
-    Identifier id = matchIdentifier();
-    match(ElemOf.class);
+    matchKeyword(FOR);
+    int id = matchIdentifier();
+    match(ELEM_OF);
     Expr source = parseCondition();
-    match(Colon.class);
+    match(COLON);
     int end = index;
     matchEndLine();
+    Attribute.Source attr = sourceAttr(start, end - 1);
+    String var = tokens.string(id);
     List<Stmt> blk = parseBlock(indent + 1);
 
-    return new Stmt.For(id.text, source, blk, sourceAttr(start, end - 1));
+    return new Stmt.For(var, source, blk, attr);
   }
 
-  private Stmt parseAssign() {
+  private Stmt parseAssign(int start, Expr lhs) {
     // standard assignment
-    int start = index;
-    Expr lhs = parseTupleExpression();
     if (!(lhs instanceof Expr.LVal)) {
       syntaxError("expecting lval, found " + lhs + ".", lhs);
     }
-    match(Equals.class);
+    match(EQUALS);
     Expr rhs = parseCondition();
     int end = index;
     matchEndLine();
@@ -516,12 +667,12 @@ public class Parser {
 
   private Expr parseTupleExpression() {
     Expr e = parseCondition();
-    if (index < tokens.size() && tokens.get(index) instanceof Comma) {
+    if (tokens.has(index) && tokens.kind(index) == COMMA) {
       // this is a tuple constructor
       ArrayList<Expr> exprs = new ArrayList<Expr>();
       exprs.add(e);
-      while (index < tokens.size() && tokens.get(index) instanceof Comma) {
-        match(Comma.class);
+      while (tokens.has(index) && tokens.kind(index) == COMMA) {
+        match(COMMA);
         exprs.add(parseCondition());
         checkNotEof();
       }
@@ -533,20 +684,19 @@ public class Parser {
 
   private Stmt parseExtern(int indent) {
     int start = index;
-    matchKeyword("extern");
-    Token tok = tokens.get(index++);
-    if (!tok.text.equals("js")) {
-      syntaxError("unsupported extern language: " + tok, tok);
+    matchKeyword(EXTERN);
+    int tok = index++;
+    if (tokens.kind(tok) != IDENTIFIER || !tokens.string(tok).equals("js")) {
+      syntaxError("unsupported extern language: " + tokens.text(tok), tok);
     }
-    match(Colon.class);
+    match(COLON);
     // int end = index;
     matchEndLine();
     String javascript = "";
-    while (tokens.get(index) instanceof Tabs
-        && ((Tabs) tokens.get(index)).ntabs == indent + 1) {
-      match(Tabs.class);
-      Lexer.Strung js = match(Lexer.Strung.class);
-      javascript = javascript + "\n" + js.string;
+    while (tokens.kind(index) == TABS && tokens.value(index) == indent + 1) {
+      match(TABS);
+      int js = match(STRING_LITERAL);
+      javascript = javascript + "\n" + tokens.string(js);
       matchEndLine();
     }
 
@@ -555,121 +705,106 @@ public class Parser {
 
   private Expr parseCondition() {
     checkNotEof();
-    int start = index;
-    Expr c1 = parseConditionExpression();
+    return parseBinaryExpression(LOGICAL);
+  }
 
-    if (index < tokens.size() && tokens.get(index) instanceof LogicalAnd) {
-      match(LogicalAnd.class);
-      skipWhiteSpace();
+  // The binding levels of the binary operators, from loosest to tightest.
+  private static final int LOGICAL = 1;
+  private static final int COMPARISON = 2;
+  private static final int ADDITIVE = 3;
+  private static final int MULTIPLICATIVE = 4;
 
-      Expr c2 = parseCondition();
-      return new Expr.BinOp(Expr.BOp.AND, c1, c2, sourceAttr(start, index - 1));
-    } else if (index < tokens.size() && tokens.get(index) instanceof LogicalOr) {
-      match(LogicalOr.class);
-      skipWhiteSpace();
+  /**
+   * The binding level of each binary operator, and the operation it stands
+   * for, indexed by token kind. A level of zero means the token isn't a
+   * binary operator.
+   */
+  private static final int[] levels = new int[TRUE + KEYWORDS.length];
+  private static final Expr.BOp[] operators =
+      new Expr.BOp[TRUE + KEYWORDS.length];
+
+  static {
+    operator(LOGICAL_AND, LOGICAL, Expr.BOp.AND);
+    operator(LOGICAL_OR, LOGICAL, Expr.BOp.OR);
+    operator(LESS_EQUALS, COMPARISON, Expr.BOp.LTEQ);
+    operator(LEFT_ANGLE, COMPARISON, Expr.BOp.LT);
+    operator(GREATER_EQUALS, COMPARISON, Expr.BOp.GTEQ);
+    operator(RIGHT_ANGLE, COMPARISON, Expr.BOp.GT);
+    operator(EQUALS_EQUALS, COMPARISON, Expr.BOp.EQ);
+    operator(NOT_EQUALS, COMPARISON, Expr.BOp.NEQ);
+    operator(TYPE_EQUALS, COMPARISON, Expr.BOp.TYPEEQ);
+    operator(ELEM_OF, COMPARISON, Expr.BOp.ELEMENTOF);
+    operator(SUBSET_EQUALS, COMPARISON, Expr.BOp.SUBSETEQ);
+    operator(SUBSET, COMPARISON, Expr.BOp.SUBSET);
+    operator(PLUS, ADDITIVE, Expr.BOp.ADD);
+    operator(MINUS, ADDITIVE, Expr.BOp.SUB);
+    operator(UNION, ADDITIVE, Expr.BOp.UNION);
+    operator(INTERSECTION, ADDITIVE, Expr.BOp.INTERSECTION);
+    operator(STAR, MULTIPLICATIVE, Expr.BOp.MUL);
+    operator(RIGHT_SLASH, MULTIPLICATIVE, Expr.BOp.DIV);
+  }
 
-      Expr c2 = parseCondition();
-      return new Expr.BinOp(Expr.BOp.OR, c1, c2, sourceAttr(start, index - 1));
-    }
-    return c1;
+  private static void operator(int kind, int level, Expr.BOp bop) {
+    levels[kind] = level;
+    operators[kind] = bop;
   }
 
-  private Expr parseConditionExpression() {
+  /**
+   * Parse an expression made up of terms joined by binary operators which
+   * bind at least as tightly as the given level. Operators at the same level
+   * associate to the right, so a - b - c is parsed as a - (b - c), except
+   * for the comparisons which don't associate at all: a comparison's
+   * operands are additive expressions, and it can only be followed by a
+   * logical operator. So can a quantifier (none or some), which may begin
+   * any expression containing the comparison level.
+   * 
+   * @param level
+   * @return
+   */
+  private Expr parseBinaryExpression(int level) {
     int start = index;
+    Expr lhs;
+    int max = MULTIPLICATIVE;
 
-    if (index < tokens.size() && tokens.get(index) instanceof Lexer.None) {
-      match(Lexer.None.class);
-      skipWhiteSpace();
-
-      Expr.Comprehension sc = parseQuantifierSet();
-      return new Expr.Comprehension(Expr.COp.NONE, null, sc.sources,
-          sc.condition, sourceAttr(start, index - 1));
-    } else if (index < tokens.size() && tokens.get(index) instanceof Lexer.Some) {
-      match(Lexer.Some.class);
+    int kind = tokens.has(index) ? tokens.kind(index) : -1;
+    if (level <= COMPARISON && (kind == NONE || kind == SOME)) {
+      match(kind);
       skipWhiteSpace();
 
       Expr.Comprehension sc = parseQuantifierSet();
-      return new Expr.Comprehension(Expr.COp.SOME, null, sc.sources,
-          sc.condition, sourceAttr(start, index - 1));
-    } // should do FOR here; could also do lone and one
-
-    Expr lhs = parseAddSubExpression();
-
-    if (index < tokens.size() && tokens.get(index) instanceof LessEquals) {
-      match(LessEquals.class);
-      skipWhiteSpace();
-
-      Expr rhs = parseAddSubExpression();
-      return new Expr.BinOp(Expr.BOp.LTEQ, lhs, rhs, sourceAttr(start,
-          index - 1));
-    } else if (index < tokens.size() && tokens.get(index) instanceof LeftAngle) {
-      match(LeftAngle.class);
-      skipWhiteSpace();
-
-      Expr rhs = parseAddSubExpression();
-      return new Expr.BinOp(Expr.BOp.LT, lhs, rhs, sourceAttr(start, index - 1));
-    } else if (index < tokens.size()
-        && tokens.get(index) instanceof GreaterEquals) {
-      match(GreaterEquals.class);
-      skipWhiteSpace();
-
-      Expr rhs = parseAddSubExpression();
-      return new Expr.BinOp(Expr.BOp.GTEQ, lhs, rhs, sourceAttr(start,
-          index - 1));
-    } else if (index < tokens.size() && tokens.get(index) instanceof RightAngle) {
-      match(RightAngle.class);
-      skipWhiteSpace();
-
-      Expr rhs = parseAddSubExpression();
-      return new Expr.BinOp(Expr.BOp.GT, lhs, rhs, sourceAttr(start, index - 1));
-    } else if (index < tokens.size()
-        && tokens.get(index) instanceof EqualsEquals) {
-      match(EqualsEquals.class);
-      skipWhiteSpace();
-
-      Expr rhs = parseAddSubExpression();
-      return new Expr.BinOp(Expr.BOp.EQ, lhs, rhs, sourceAttr(start, index - 1));
-    } else if (index < tokens.size() && tokens.get(index) instanceof NotEquals) {
-      match(NotEquals.class);
-      skipWhiteSpace();
-
-      Expr rhs = parseAddSubExpression();
-      return new Expr.BinOp(Expr.BOp.NEQ, lhs, rhs,
-          sourceAttr(start, index - 1));
-    } else if (index < tokens.size()
-        && tokens.get(index) instanceof Lexer.TypeEquals) {
-      return parseTypeEquals(lhs, start);
-    } else if (index < tokens.size()
-        && tokens.get(index) instanceof Lexer.ElemOf) {
-      match(Lexer.ElemOf.class);
-      skipWhiteSpace();
-
-      Expr rhs = parseAddSubExpression();
-      return new Expr.BinOp(Expr.BOp.ELEMENTOF, lhs, rhs, sourceAttr(start,
+      lhs = new Expr.Comprehension(kind == NONE ? Expr.COp.NONE
+          : Expr.COp.SOME, null, sc.sources, sc.condition, sourceAttr(start,
           index - 1));
-    } else if (index < tokens.size()
-        && tokens.get(index) instanceof Lexer.SubsetEquals) {
-      match(Lexer.SubsetEquals.class);
-      skipWhiteSpace();
+      max = LOGICAL;
+    } else {
+      lhs = parseIndexTerm();
+    }
 
-      Expr rhs = parseAddSubExpression();
-      return new Expr.BinOp(Expr.BOp.SUBSETEQ, lhs, rhs, sourceAttr(start,
-          index - 1));
-    } else if (index < tokens.size()
-        && tokens.get(index) instanceof Lexer.Subset) {
-      match(Lexer.Subset.class);
-      skipWhiteSpace();
+    while (tokens.has(index)) {
+      kind = tokens.kind(index);
+      int l = levels[kind];
+      if (l < level || l > max) {
+        break;
+      } else if (kind == TYPE_EQUALS) {
+        lhs = parseTypeEquals(lhs, start);
+      } else {
+        match(kind);
+        skipWhiteSpace();
 
-      Expr rhs = parseAddSubExpression();
-      return new Expr.BinOp(Expr.BOp.SUBSET, lhs, rhs, sourceAttr(start,
-          index - 1));
-    } else {
-      return lhs;
+        Expr rhs = parseBinaryExpression(l == COMPARISON ? ADDITIVE : l);
+        lhs = new Expr.BinOp(operators[kind], lhs, rhs, sourceAttr(start,
+            index - 1));
+      }
+      // the right operand took any operators binding as tightly as this one,
+      // so only looser ones may follow (and only logical ones after a
+      // comparison).
+      max = l == COMPARISON ? LOGICAL : l;
     }
+    return lhs;
   }
 
   private Expr parseTypeEquals(Expr lhs, int start) {
-    match(Lexer.TypeEquals.class);
+    match(TYPE_EQUALS);
     skipWhiteSpace();
 
     UnresolvedType type = parseType();
@@ -679,106 +814,46 @@ public class Parser {
         sourceAttr(start, index - 1));
   }
 
-  private Expr parseAddSubExpression() {
-    int start = index;
-    Expr lhs = parseMulDivExpression();
-
-    if (index < tokens.size() && tokens.get(index) instanceof Plus) {
-      match(Plus.class);
-      skipWhiteSpace();
-      Expr rhs = parseAddSubExpression();
-      return new Expr.BinOp(Expr.BOp.ADD, lhs, rhs,
-          sourceAttr(start, index - 1));
-    } else if (index < tokens.size() && tokens.get(index) instanceof Minus) {
-      match(Minus.class);
-      skipWhiteSpace();
-
-      Expr rhs = parseAddSubExpression();
-      return new Expr.BinOp(Expr.BOp.SUB, lhs, rhs,
-          sourceAttr(start, index - 1));
-    } else if (index < tokens.size() && tokens.get(index) instanceof Union) {
-      match(Union.class);
-      skipWhiteSpace();
-
-      Expr rhs = parseAddSubExpression();
-      return new Expr.BinOp(Expr.BOp.UNION, lhs, rhs, sourceAttr(start,
-          index - 1));
-    } else if (index < tokens.size()
-        && tokens.get(index) instanceof Intersection) {
-      match(Intersection.class);
-      skipWhiteSpace();
-
-      Expr rhs = parseAddSubExpression();
-      return new Expr.BinOp(Expr.BOp.INTERSECTION, lhs, rhs, sourceAttr(start,
-          index - 1));
-    }
-
-    return lhs;
-  }
-
-  private Expr parseMulDivExpression() {
-    int start = index;
-    Expr lhs = parseIndexTerm();
-
-    if (index < tokens.size() && tokens.get(index) instanceof Star) {
-      match(Star.class);
-      skipWhiteSpace();
-
-      Expr rhs = parseMulDivExpression();
-      return new Expr.BinOp(Expr.BOp.MUL, lhs, rhs,
-          sourceAttr(start, index - 1));
-    } else if (index < tokens.size() && tokens.get(index) instanceof RightSlash) {
-      match(RightSlash.class);
-      skipWhiteSpace();
-
-      Expr rhs = parseMulDivExpression();
-      return new Expr.BinOp(Expr.BOp.DIV, lhs, rhs,
-          sourceAttr(start, index - 1));
-    }
-
-    return lhs;
-  }
-
   private Expr parseIndexTerm() {
     checkNotEof();
     int start = index;
     // int ostart = index;
     Expr lhs = parseTerm();
 
-    Token lookahead = tokens.get(index);
+    int lookahead = tokens.kind(index);
 
-    while (lookahead instanceof LeftSquare || lookahead instanceof Dot
-        || lookahead instanceof LeftBrace) {
+    while (lookahead == LEFT_SQUARE || lookahead == DOT
+        || lookahead == LEFT_BRACE) {
       // ostart = start;
       start = index;
-      if (lookahead instanceof LeftSquare) {
-        match(LeftSquare.class);
+      if (lookahead == LEFT_SQUARE) {
+        match(LEFT_SQUARE);
         skipWhiteSpace();
 
-        lookahead = tokens.get(index);
+        lookahead = tokens.kind(index);
 
-        if (lookahead instanceof DotDot) {
+        if (lookahead == DOTDOT) {
           // this indicates a sublist without a starting expression;
           // hence, start point defaults to zero
-          match(DotDot.class);
+          match(DOTDOT);
           skipWhiteSpace();
-          lookahead = tokens.get(index);
-          Expr end = parseAddSubExpression();
-          match(RightSquare.class);
+          lookahead = tokens.kind(index);
+          Expr end = parseBinaryExpression(ADDITIVE);
+          match(RIGHT_SQUARE);
           return new Expr.NaryOp(Expr.NOp.SUBLIST,
               sourceAttr(start, index - 1), lhs, new Expr.Constant(0,
                   sourceAttr(start, index - 1)), end);
         }
 
-        Expr rhs = parseAddSubExpression();
+        Expr rhs = parseBinaryExpression(ADDITIVE);
 
-        lookahead = tokens.get(index);
-        if (lookahead instanceof DotDot) {
-          match(DotDot.class);
+        lookahead = tokens.kind(index);
+        if (lookahead == DOTDOT) {
+          match(DOTDOT);
           skipWhiteSpace();
-          lookahead = tokens.get(index);
+          lookahead = tokens.kind(index);
           Expr end;
-          if (lookahead instanceof RightSquare) {
+          if (lookahead == RIGHT_SQUARE) {
             // In this case, no end of the slice has been provided.
             // Therefore, it is taken to be the length of the source
             // expression.
@@ -786,27 +861,27 @@ public class Parser {
                 new Expr.UnOp(Expr.UOp.LENGTHOF, lhs,
                     lhs.attribute(Attribute.Source.class));
           } else {
-            end = parseAddSubExpression();
+            end = parseBinaryExpression(ADDITIVE);
           }
-          match(RightSquare.class);
+          match(RIGHT_SQUARE);
           lhs =
               new Expr.NaryOp(Expr.NOp.SUBLIST, sourceAttr(start, index - 1),
                   lhs, rhs, end);
         } else {
-          match(RightSquare.class);
+          match(RIGHT_SQUARE);
           lhs =
               new Expr.Access(Expr.LOp.LISTACCESS, lhs, rhs, sourceAttr(start,
                   index - 1));
         }
       } else {
-        match(Dot.class);
-        String name = matchIdentifier().text;
+        match(DOT);
+        String name = tokens.string(matchIdentifier());
         lhs = new Expr.RecordAccess(lhs, name, sourceAttr(start, index - 1));
       }
-      if (index < tokens.size()) {
-        lookahead = tokens.get(index);
+      if (tokens.has(index)) {
+        lookahead = tokens.kind(index);
       } else {
-        lookahead = null;
+        lookahead = -1;
       }
     }
 
@@ -817,88 +892,96 @@ public class Parser {
     checkNotEof();
 
     int start = index;
-    Token token = tokens.get(index);
 
-    if (token instanceof LeftBrace) {
-      match(LeftBrace.class);
+    switch (tokens.kind(index)) {
+    case LEFT_BRACE: {
+      match(LEFT_BRACE);
       skipWhiteSpace();
       checkNotEof();
       Expr v = parseTupleExpression();
       skipWhiteSpace();
       checkNotEof();
-      token = tokens.get(index);
-      match(RightBrace.class);
+      match(RIGHT_BRACE);
       return v;
-    } else if ((index + 1) < tokens.size() && token instanceof Identifier
-        && tokens.get(index + 1) instanceof LeftBrace) {
-      // must be a method invocation
-      return parseInvokeExpr();
-    } else if (token.text.equals("null")) {
-      matchKeyword("null");
+    }
+    case IDENTIFIER:
+      if (tokens.has(index + 1)
+          && tokens.kind(index + 1) == LEFT_BRACE) {
+        // must be a method invocation
+        return parseInvokeExpr();
+      }
+      return new Expr.Variable(tokens.string(matchIdentifier()), sourceAttr(
+          start, index - 1));
+    case NULL:
+      matchKeyword(NULL);
       return new Expr.Constant(null, sourceAttr(start, index - 1));
-    } else if (token.text.equals("true")) {
-      matchKeyword("true");
+    case TRUE:
+      matchKeyword(TRUE);
       return new Expr.Constant(true, sourceAttr(start, index - 1));
-    } else if (token.text.equals("false")) {
-      matchKeyword("false");
+    case FALSE:
+      matchKeyword(FALSE);
       return new Expr.Constant(false, sourceAttr(start, index - 1));
-    } else if (token instanceof Identifier) {
-      return new Expr.Variable(matchIdentifier().text, sourceAttr(start,
-          index - 1));
-    } else if (token instanceof Lexer.Char) {
-      char val = match(Lexer.Char.class).value;
+    case CHAR_LITERAL: {
+      char val = (char) tokens.value(match(CHAR_LITERAL));
       return new Expr.Constant(new Character(val), sourceAttr(start, index - 1));
-    } else if (token instanceof Int) {
-      int val = match(Int.class).value;
+    }
+    case INT_LITERAL: {
+      int val = tokens.value(match(INT_LITERAL));
+      return new Expr.Constant(val, sourceAttr(start, index - 1));
+    }
+    case BIG_INT_LITERAL: {
+      BigInteger val = tokens.bigInteger(match(BIG_INT_LITERAL));
       return new Expr.Constant(val, sourceAttr(start, index - 1));
-    } else if (token instanceof Real) {
-      double val = match(Real.class).value;
+    }
+    case REAL_LITERAL: {
+      double val = tokens.real(match(REAL_LITERAL));
       return new Expr.Constant(val, sourceAttr(start, index - 1));
-    } else if (token instanceof Strung) {
+    }
+    case STRING_LITERAL:
       return parseString();
-    } else if (token instanceof Minus) {
+    case MINUS:
       return parseNegation();
-    } else if (token instanceof Bar) {
+    case BAR:
       return parseLengthOf();
-    } else if (token instanceof LeftSquare) {
+    case LEFT_SQUARE:
       return parseListVal();
-    } else if (token instanceof LeftCurly) {
+    case LEFT_CURLY:
       return parseSetVal();
-    } else if (token instanceof EmptySet) {
-      match(EmptySet.class);
+    case EMPTY_SET:
+      match(EMPTY_SET);
       return new Expr.Constant(new HashSet<Object>(), sourceAttr(start,
           index - 1));
-    } else if (token instanceof Shreak) {
-      match(Shreak.class);
+    case SHREAK:
+      match(SHREAK);
       return new Expr.UnOp(Expr.UOp.NOT, parseTerm(), sourceAttr(start,
           index - 1));
-    } else if (token instanceof AddressOf) {
+    case ADDRESS_OF:
       return parseFunVal();
     }
-    syntaxError("unrecognised term.", token);
+    syntaxError("unrecognised term.", index);
     return null;
   }
 
   private Expr parseFunVal() {
     int start = index;
-    match(AddressOf.class);
-    String funName = matchIdentifier().text;
+    match(ADDRESS_OF);
+    String funName = tokens.string(matchIdentifier());
     ArrayList<UnresolvedType> paramTypes = new ArrayList<UnresolvedType>();
 
-    if (tokens.get(index) instanceof LeftBrace) {
+    if (tokens.kind(index) == LEFT_BRACE) {
       // parse parameter types
-      match(LeftBrace.class);
+      match(LEFT_BRACE);
       boolean firstTime = true;
-      while (index < tokens.size()
-          && !(tokens.get(index) instanceof RightBrace)) {
+      while (tokens.has(index)
+          && tokens.kind(index) != RIGHT_BRACE) {
         if (!firstTime) {
-          match(Comma.class);
+          match(COMMA);
         }
         firstTime = false;
         UnresolvedType ut = parseType();
         paramTypes.add(ut);
       }
-      match(RightBrace.class);
+      match(RIGHT_BRACE);
     }
 
     return new Expr.FunConst(funName, paramTypes, sourceAttr(start, index - 1));
@@ -907,76 +990,76 @@ public class Parser {
   private Expr parseListVal() {
     int start = index;
     ArrayList<Expr> exprs = new ArrayList<Expr>();
-    match(LeftSquare.class);
+    match(LEFT_SQUARE);
     skipWhiteSpace();
     boolean firstTime = true;
     checkNotEof();
-    Token token = tokens.get(index);
-    while (!(token instanceof RightSquare)) {
+    int token = tokens.kind(index);
+    while (token != RIGHT_SQUARE) {
       if (!firstTime) {
-        match(Comma.class);
+        match(COMMA);
         skipWhiteSpace();
       }
       firstTime = false;
       exprs.add(parseCondition());
       skipWhiteSpace();
       checkNotEof();
-      token = tokens.get(index);
+      token = tokens.kind(index);
     }
-    match(RightSquare.class);
+    match(RIGHT_SQUARE);
     return new Expr.NaryOp(Expr.NOp.LISTGEN, exprs,
         sourceAttr(start, index - 1));
   }
 
   private Expr.Comprehension parseQuantifierSet() {
     int start = index;
-    match(LeftCurly.class);
+    match(LEFT_CURLY);
     skipWhiteSpace();
-    Token token = tokens.get(index);
+    int token = tokens.kind(index);
     boolean firstTime = true;
     List<Pair<String, Expr>> srcs = new ArrayList<Pair<String, Expr>>();
     HashSet<String> vars = new HashSet<String>();
-    while (!(token instanceof Bar)) {
+    while (token != BAR) {
       if (!firstTime) {
-        match(Comma.class);
+        match(COMMA);
         skipWhiteSpace();
       }
       firstTime = false;
-      Identifier id = matchIdentifier();
+      int id = matchIdentifier();
       skipWhiteSpace();
-      String var = id.text;
+      String var = tokens.string(id);
       if (vars.contains(var)) {
         syntaxError("variable " + var
             + " cannot have multiple source collections", id);
       } else {
         vars.add(var);
       }
-      match(Lexer.ElemOf.class);
+      match(ELEM_OF);
       skipWhiteSpace();
-      Expr src = parseConditionExpression();
+      Expr src = parseBinaryExpression(COMPARISON);
       srcs.add(new Pair<String, Expr>(var, src));
       skipWhiteSpace();
       checkNotEof();
-      token = tokens.get(index);
+      token = tokens.kind(index);
     }
-    match(Bar.class);
+    match(BAR);
     skipWhiteSpace();
     Expr condition = parseCondition();
     skipWhiteSpace();
-    match(RightCurly.class);
+    match(RIGHT_CURLY);
     return new Expr.Comprehension(Expr.COp.SETCOMP, null, srcs, condition,
         sourceAttr(start, index - 1));
   }
 
   private Expr parseSetVal() {
     int start = index;
-    match(LeftCurly.class);
+    match(LEFT_CURLY);
     skipWhiteSpace();
     ArrayList<Expr> exprs = new ArrayList<Expr>();
-    Token token = tokens.get(index);
+    int token = tokens.kind(index);
 
-    if (token instanceof RightCurly) {
-      match(RightCurly.class);
+    if (token == RIGHT_CURLY) {
+      match(RIGHT_CURLY);
       // empty set definition
       return new Expr.Constant(new HashSet<Object>(), sourceAttr(start,
           index - 1));
@@ -987,15 +1070,15 @@ public class Parser {
 
     boolean setComp = false;
     boolean firstTime = false;
-    if (index < tokens.size() && tokens.get(index) instanceof Bar) {
+    if (tokens.has(index) && tokens.kind(index) == BAR) {
       // this is a set comprehension
       setComp = true;
-      match(Bar.class);
+      match(BAR);
       firstTime = true;
-    } else if (index < tokens.size() && tokens.get(index) instanceof Arrow) {
+    } else if (tokens.has(index) && tokens.kind(index) == ARROW) {
       // this is a dictionary constructor
       return parseDictionaryVal(start, exprs.get(0));
-    } else if (index < tokens.size() && tokens.get(index) instanceof Colon
+    } else if (tokens.has(index) && tokens.kind(index) == COLON
         && exprs.get(0) instanceof Expr.Variable) {
       // this is a record constructor
       Expr.Variable v = (Expr.Variable) exprs.get(0);
@@ -1003,19 +1086,19 @@ public class Parser {
     }
 
     checkNotEof();
-    token = tokens.get(index);
-    while (!(token instanceof RightCurly)) {
+    token = tokens.kind(index);
+    while (token != RIGHT_CURLY) {
       if (!firstTime) {
-        match(Comma.class);
+        match(COMMA);
         skipWhiteSpace();
       }
       firstTime = false;
       exprs.add(parseCondition());
       skipWhiteSpace();
       checkNotEof();
-      token = tokens.get(index);
+      token = tokens.kind(index);
     }
-    match(RightCurly.class);
+    match(RIGHT_CURLY);
 
     if (setComp) {
       Expr value = exprs.get(0);
@@ -1054,75 +1137,75 @@ public class Parser {
   }
 
   private Expr parseDictionaryVal(int start, Expr key) {
-    match(Arrow.class);
+    match(ARROW);
     ArrayList<Pair<Expr, Expr>> pairs = new ArrayList<Pair<Expr, Expr>>();
     Expr value = parseCondition();
     pairs.add(new Pair<Expr, Expr>(key, value));
     skipWhiteSpace();
-    Token token = tokens.get(index);
-    while (!(token instanceof RightCurly)) {
-      match(Comma.class);
+    int token = tokens.kind(index);
+    while (token != RIGHT_CURLY) {
+      match(COMMA);
       skipWhiteSpace();
       key = parseCondition();
-      match(Arrow.class);
+      match(ARROW);
       value = parseCondition();
       pairs.add(new Pair<Expr, Expr>(key, value));
       skipWhiteSpace();
       checkNotEof();
-      token = tokens.get(index);
+      token = tokens.kind(index);
     }
-    match(RightCurly.class);
+    match(RIGHT_CURLY);
     return new Expr.DictionaryGen(pairs, sourceAttr(start, index - 1));
   }
 
   private Expr parseRecordVal(int start, String ident) {
 
     // this indicates a record value.
-    match(Colon.class);
+    match(COLON);
     skipWhiteSpace();
-    Expr e = parseAddSubExpression();
+    Expr e = parseBinaryExpression(ADDITIVE);
     skipWhiteSpace();
 
     HashMap<String, Expr> exprs = new HashMap<String, Expr>();
     exprs.put(ident, e);
     checkNotEof();
-    Token token = tokens.get(index);
-    while (!(token instanceof RightCurly)) {
-      match(Comma.class);
+    int token = tokens.kind(index);
+    while (token != RIGHT_CURLY) {
+      match(COMMA);
       skipWhiteSpace();
       checkNotEof();
-      token = tokens.get(index);
-      Identifier n = matchIdentifier();
+      token = tokens.kind(index);
+      int n = matchIdentifier();
 
-      if (exprs.containsKey(n.text)) {
+      if (exprs.containsKey(tokens.string(n))) {
         syntaxError("duplicate tuple key", n);
       }
 
-      match(Colon.class);
+      match(COLON);
       skipWhiteSpace();
-      e = parseAddSubExpression();
-      exprs.put(n.text, e);
+      e = parseBinaryExpression(ADDITIVE);
+      exprs.put(tokens.string(n), e);
       checkNotEof();
-      token = tokens.get(index);
+      token = tokens.kind(index);
     }
-    match(RightCurly.class);
+    match(RIGHT_CURLY);
 
     return new Expr.RecordGen(exprs, sourceAttr(start, index - 1));
   }
 
   private Expr parseLengthOf() {
     int start = index;
-    match(Bar.class);
+    match(BAR);
     skipWhiteSpace();
     Expr e = parseIndexTerm();
     skipWhiteSpace();
-    match(Bar.class);
+    match(BAR);
     return new Expr.UnOp(Expr.UOp.LENGTHOF, e, sourceAttr(start, index - 1));
   }
 
   private Expr parseNegation() {
     int start = index;
-    match(Minus.class);
+    match(MINUS);
     skipWhiteSpace();
     Expr e = parseIndexTerm();
 
@@ -1131,6 +1214,13 @@ public class Parser {
       if (c.value instanceof Integer) {
         int bi = (Integer) c.value;
         return new Expr.Constant(-bi, sourceAttr(start, index));
+      } else if (c.value instanceof BigInteger) {
+        BigInteger bi = ((BigInteger) c.value).negate();
+        if (bi.bitLength() < 32) {
+          // e.g. -2147483648
+          return new Expr.Constant(bi.intValue(), sourceAttr(start, index));
+        }
+        return new Expr.Constant(bi, sourceAttr(start, index));
       } else if (c.value instanceof Double) {
         double br = (Double) c.value;
         return new Expr.Constant(-br, sourceAttr(start, index));
@@ -1142,29 +1232,29 @@ public class Parser {
 
   private Expr.Invoke parseInvokeExpr() {
     int start = index;
-    Identifier name = matchIdentifier();
-    match(LeftBrace.class);
+    int name = matchIdentifier();
+    match(LEFT_BRACE);
     skipWhiteSpace();
     boolean firstTime = true;
     ArrayList<Expr> args = new ArrayList<Expr>();
-    while (index < tokens.size() && !(tokens.get(index) instanceof RightBrace)) {
+    while (tokens.has(index) && tokens.kind(index) != RIGHT_BRACE) {
       if (!firstTime) {
-        match(Comma.class);
+        match(COMMA);
         skipWhiteSpace();
       } else {
         firstTime = false;
       }
-      Expr e = parseAddSubExpression();
+      Expr e = parseBinaryExpression(ADDITIVE);
       skipWhiteSpace();
       args.add(e);
     }
-    match(RightBrace.class);
-    return new Expr.Invoke(name.text, null, args, sourceAttr(start, index - 1));
+    match(RIGHT_BRACE);
+    return new Expr.Invoke(tokens.string(name), null, args, sourceAttr(start, index - 1));
   }
 
   private Expr parseString() {
     int start = index;
-    String s = match(Strung.class).string;    
+    String s = tokens.string(match(STRING_LITERAL));
     return new Expr.Constant(s, sourceAttr(start, index - 1));
   }
 
@@ -1173,32 +1263,32 @@ public class Parser {
     UnresolvedType t = parseBaseType();
 
     // Now, attempt to look for union or intersection types.
-    if (index < tokens.size() && tokens.get(index) instanceof Bar) {
+    if (tokens.has(index) && tokens.kind(index) == BAR) {
       // this is a union type
       ArrayList<UnresolvedType.NonUnion> types =
           new ArrayList<UnresolvedType.NonUnion>();
       types.add((UnresolvedType.NonUnion) t);
-      while (index < tokens.size() && tokens.get(index) instanceof Bar) {
-        match(Bar.class);
+      while (tokens.has(index) && tokens.kind(index) == BAR) {
+        match(BAR);
         skipWhiteSpace();
         t = parseBaseType();
         types.add((UnresolvedType.NonUnion) t);
       }
       return new UnresolvedType.Union(types, sourceAttr(start, index - 1));
-    } else if (index < tokens.size() && tokens.get(index) instanceof LeftBrace) {
+    } else if (tokens.has(index) && tokens.kind(index) == LEFT_BRACE) {
       // this is a function type
-      match(LeftBrace.class);
+      match(LEFT_BRACE);
       ArrayList<UnresolvedType> types = new ArrayList<UnresolvedType>();
       boolean firstTime = true;
-      while (index < tokens.size()
-          && !(tokens.get(index) instanceof RightBrace)) {
+      while (tokens.has(index)
+          && tokens.kind(index) != RIGHT_BRACE) {
         if (!firstTime) {
-          match(Comma.class);
+          match(COMMA);
         }
         firstTime = false;
         types.add(parseType());
       }
-      match(RightBrace.class);
+      match(RIGHT_BRACE);
       return new UnresolvedType.Fun(t, types);
     } else {
       return t;
@@ -1208,88 +1298,88 @@ public class Parser {
   private UnresolvedType parseBaseType() {
     checkNotEof();
     int start = index;
-    Token token = tokens.get(index);
+    int token = tokens.kind(index);
     UnresolvedType t;
 
-    if (token instanceof Question) {
-      match(Question.class);
+    if (token == QUESTION) {
+      match(QUESTION);
       t = new UnresolvedType.Existential(sourceAttr(start, index - 1));
-    } else if (token instanceof Star) {
-      match(Star.class);
+    } else if (token == STAR) {
+      match(STAR);
       t = new UnresolvedType.Any(sourceAttr(start, index - 1));
-    } else if (token.text.equals("null")) {
-      matchKeyword("null");
+    } else if (token == NULL) {
+      matchKeyword(NULL);
       t = new UnresolvedType.Null(sourceAttr(start, index - 1));
-    } else if (token.text.equals("int")) {
-      matchKeyword("int");
+    } else if (token == INT) {
+      matchKeyword(INT);
       t = new UnresolvedType.Int(sourceAttr(start, index - 1));
-    } else if (token.text.equals("real")) {
-      matchKeyword("real");
+    } else if (token == REAL) {
+      matchKeyword(REAL);
       t = new UnresolvedType.Real(sourceAttr(start, index - 1));
-    } else if (token.text.equals("void")) {
-      matchKeyword("void");
+    } else if (token == VOID) {
+      matchKeyword(VOID);
       t = new UnresolvedType.Void(sourceAttr(start, index - 1));
-    } else if (token.text.equals("bool")) {
-      matchKeyword("bool");
+    } else if (token == BOOL) {
+      matchKeyword(BOOL);
       t = new UnresolvedType.Bool(sourceAttr(start, index - 1));
-    } else if (token.text.equals("char")) {
-      matchKeyword("char");
+    } else if (token == CHAR) {
+      matchKeyword(CHAR);
       t = new UnresolvedType.Char(sourceAttr(start, index - 1));
-    } else if (token.text.equals("string")) {
-        matchKeyword("string");
+    } else if (token == STRING) {
+        matchKeyword(STRING);
         t = new UnresolvedType.Strung(sourceAttr(start, index - 1));
-    } else if (token instanceof LeftBrace) {
-      match(LeftBrace.class);
+    } else if (token == LEFT_BRACE) {
+      match(LEFT_BRACE);
       skipWhiteSpace();
       ArrayList<UnresolvedType> types = new ArrayList<UnresolvedType>();
       types.add(parseType());
-      match(Comma.class);
+      match(COMMA);
       skipWhiteSpace();
       types.add(parseType());
       checkNotEof();
-      token = tokens.get(index);
-      while (!(token instanceof RightBrace)) {
-        match(Comma.class);
+      token = tokens.kind(index);
+      while (token != RIGHT_BRACE) {
+        match(COMMA);
         skipWhiteSpace();
         types.add(parseType());
         checkNotEof();
-        token = tokens.get(index);
+        token = tokens.kind(index);
       }
-      match(RightBrace.class);
+      match(RIGHT_BRACE);
       return new UnresolvedType.Tuple(types, sourceAttr(start, index - 1));
-    } else if (token instanceof LeftCurly) {
-      match(LeftCurly.class);
+    } else if (token == LEFT_CURLY) {
+      match(LEFT_CURLY);
       skipWhiteSpace();
       t = parseType();
       skipWhiteSpace();
       checkNotEof();
-      if (tokens.get(index) instanceof RightCurly) {
+      if (tokens.kind(index) == RIGHT_CURLY) {
         // set type
-        match(RightCurly.class);
+        match(RIGHT_CURLY);
         t = new UnresolvedType.Set(t, sourceAttr(start, index - 1));
-      } else if (tokens.get(index) instanceof Arrow) {
+      } else if (tokens.kind(index) == ARROW) {
         // map type
-        match(Arrow.class);
+        match(ARROW);
         UnresolvedType v = parseType();
-        match(RightCurly.class);
+        match(RIGHT_CURLY);
         t = new UnresolvedType.Dictionary(t, v, sourceAttr(start, index - 1));
       } else {
         // record type
         HashMap<String, UnresolvedType> types =
             new HashMap<String, UnresolvedType>();
-        Token n = matchIdentifier();
+        int n = matchIdentifier();
         if (types.containsKey(n)) {
           syntaxError("duplicate tuple key", n);
         }
-        types.put(n.text, t);
+        types.put(tokens.string(n), t);
         skipWhiteSpace();
         checkNotEof();
-        token = tokens.get(index);
-        while (!(token instanceof RightCurly)) {
-          match(Comma.class);
+        token = tokens.kind(index);
+        while (token != RIGHT_CURLY) {
+          match(COMMA);
           skipWhiteSpace();
           checkNotEof();
-          token = tokens.get(index);
+          token = tokens.kind(index);
           UnresolvedType tmp = parseType();
           skipWhiteSpace();
           n = matchIdentifier();
@@ -1297,23 +1387,23 @@ public class Parser {
           if (types.containsKey(n)) {
             syntaxError("duplicate tuple key", n);
           }
-          types.put(n.text, tmp);
+          types.put(tokens.string(n), tmp);
           checkNotEof();
-          token = tokens.get(index);
+          token = tokens.kind(index);
         }
-        match(RightCurly.class);
+        match(RIGHT_CURLY);
         t = new UnresolvedType.Record(types, sourceAttr(start, index - 1));
       }
-    } else if (token instanceof LeftSquare) {
-      match(LeftSquare.class);
+    } else if (token == LEFT_SQUARE) {
+      match(LEFT_SQUARE);
       skipWhiteSpace();
       t = parseType();
       skipWhiteSpace();
-      match(RightSquare.class);
+      match(RIGHT_SQUARE);
       t = new UnresolvedType.List(t, sourceAttr(start, index - 1));
     } else {
-      Identifier id = matchIdentifier();
-      t = new UnresolvedType.Named(id.text, sourceAttr(start, index - 1));
+      int id = matchIdentifier();
+      t = new UnresolvedType.Named(tokens.string(id), sourceAttr(start, index - 1));
     }
 
     return t;
@@ -1334,75 +1424,78 @@ public class Parser {
    */
 
   private void skipWhiteSpace() {
-    while (index < tokens.size() && isWhiteSpace(tokens.get(index))) {
+    while (tokens.has(index) && isWhiteSpace(tokens.kind(index))) {
       index++;
     }
   }
 
-  private boolean isWhiteSpace(Token t) {
-    return t instanceof Lexer.NewLine || t instanceof Lexer.Comment
-        || t instanceof Lexer.Tabs;
+  private boolean isWhiteSpace(int kind) {
+    return kind == NEWLINE || kind == COMMENT || kind == TABS;
   }
 
   private void checkNotEof() {
-    if (index >= tokens.size()) {
+    if (!tokens.has(index)) {
       throw new SyntaxError("unexpected end-of-file", filename, index - 1,
           index - 1);
     }
     return;
   }
 
-  @SuppressWarnings("unchecked")
-  private <T extends Token> T match(Class<T> c) {
+  /**
+   * Match a token of the given kind, returning its index in the stream.
+   * 
+   * @param kind
+   * @return
+   */
+  private int match(int kind) {
     checkNotEof();
-    Token t = tokens.get(index);
-    if (!c.isInstance(t)) {
-      syntaxError("syntax error", t);
+    if (tokens.kind(index) != kind) {
+      syntaxError("syntax error", index);
     }
-    index = index + 1;
-    return (T) t;
+    return index++;
   }
 
-  private Identifier matchIdentifier() {
+  private int matchIdentifier() {
     checkNotEof();
-    Token t = tokens.get(index);
-    if (t instanceof Identifier) {
-      Identifier i = (Identifier) t;
-      index = index + 1;
-      return i;
+    if (tokens.kind(index) != IDENTIFIER) {
+      syntaxError("identifier expected", index);
     }
-    syntaxError("identifier expected", t);
-    return null; // unreachable.
+    return index++;
   }
 
-  private Keyword matchKeyword(String keyword) {
+  private int matchKeyword(int keyword) {
     checkNotEof();
-    Token t = tokens.get(index);
-    if (t instanceof Keyword) {
-      if (t.text.equals(keyword)) {
-        index = index + 1;
-        return (Keyword) t;
-      }
+    if (tokens.kind(index) != keyword) {
+      syntaxError("keyword " + KEYWORDS[keyword - TRUE] + " expected.", index);
     }
-    syntaxError("keyword " + keyword + " expected.", t);
-    return null;
+    return index++;
   }
 
   private void matchEndLine() {
-    while (index < tokens.size()) {
-      Token t = tokens.get(index++);
-      if (t instanceof NewLine) {
+    while (tokens.has(index)) {
+      int t = index++;
+      int kind = tokens.kind(t);
+      if (kind == NEWLINE) {
         break;
-      } else if (!(t instanceof Comment) && !(t instanceof Tabs)) {
+      } else if (kind != COMMENT && kind != TABS) {
         syntaxError("syntax error", t);
       }
     }
   }
 
+  /**
+   * Get the number of syntactic elements created so far, which is the number
+   * of source attributes handed out.
+   * 
+   * @return
+   */
+  public int nodes() {
+    return nodes;
+  }
+
   private Attribute.Source sourceAttr(int start, int end) {
-    Token t1 = tokens.get(start);
-    Token t2 = tokens.get(end);
-    return new Attribute.Source(t1.start, t2.end());
+    nodes++;
+    return new Attribute.Source(tokens.start(start), tokens.end(end));
   }
 
   private void syntaxError(String msg, Expr e) {
@@ -1410,8 +1503,8 @@ public class Parser {
     throw new ParseError(msg, filename, loc.start, loc.end);
   }
 
-  private void syntaxError(String msg, Token t) {
-    throw new ParseError(msg, filename, t.start, t.start + t.text.length() - 1);
+  private void syntaxError(String msg, int token) {
+    throw new ParseError(msg, filename, tokens.start(token), tokens.end(token));
   }
 
 }
@@ -0,0 +1,506 @@
+// This file is part of the Whiley-to-Java Compiler (wyjc).
+//
+// The Whiley-to-Java Compiler is free software; you can redistribute
+// it and/or modify it under the terms of the GNU General Public
+// License as published by the Free Software Foundation; either
+// version 3 of the License, or (at your option) any later version.
+//
+// The Whiley-to-Java Compiler is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE. See the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with the Whiley-to-Java Compiler. If not, see
+// <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+package wyjs.stages;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import wyjs.util.Symbols;
+
+/**
+ * A token stream holds the tokens of a source file in parallel arrays,
+ * rather than as one object per token. Each token has a kind (one of the
+ * constants below), the positions of its first and last characters in the
+ * input, and an integer value whose meaning depends on the kind:
+ *
+ * <ul>
+ * <li>The value of an integer or character literal is the literal itself.
+ * An integer literal too large for an int is instead a big integer literal.</li>
+ * <li>The value of an indentation is the number of tabs it represents.</li>
+ * <li>The value of an identifier, string literal or big integer literal is an
+ * index into the stream's table of strings, which holds the identifier's
+ * name, the string's (unescaped) contents or the integer's digits. Each
+ * distinct string is held in the table only once.</li>
+ * <li>The value of a real literal is an index into the stream's table of
+ * reals.</li>
+ * </ul>
+ *
+ * A token stream may be filled in advance, or on demand from a source (such
+ * as a lexer) as its tokens are asked for. Tokens are always identified by
+ * their position in the whole stream, but they are held in a ring buffer
+ * which need only span those tokens which have not yet been released. A
+ * stream which is never released simply holds every token.
+ *
+ * @author djp
+ *
+ */
+public class TokenStream {
+
+  // Layout and comments
+  public static final int NEWLINE = 0;
+  public static final int TABS = 1;
+  public static final int COMMENT = 2;
+
+  // Identifiers and literals
+  public static final int IDENTIFIER = 3;
+  public static final int INT_LITERAL = 4;
+  public static final int BIG_INT_LITERAL = 5;
+  public static final int REAL_LITERAL = 6;
+  public static final int CHAR_LITERAL = 7;
+  public static final int STRING_LITERAL = 8;
+
+  // Operators
+  public static final int COMMA = 9;
+  public static final int COLON = 10;
+  public static final int SEMICOLON = 11;
+  public static final int LEFT_BRACE = 12;
+  public static final int RIGHT_BRACE = 13;
+  public static final int LEFT_SQUARE = 14;
+  public static final int RIGHT_SQUARE = 15;
+  public static final int LEFT_ANGLE = 16;
+  public static final int RIGHT_ANGLE = 17;
+  public static final int LEFT_CURLY = 18;
+  public static final int RIGHT_CURLY = 19;
+  public static final int PLUS = 20;
+  public static final int MINUS = 21;
+  public static final int STAR = 22;
+  public static final int RIGHT_SLASH = 23;
+  public static final int SHREAK = 24;
+  public static final int QUESTION = 25;
+  public static final int DOT = 26;
+  public static final int DOTDOT = 27;
+  public static final int BAR = 28;
+  public static final int EQUALS = 29;
+  public static final int EQUALS_EQUALS = 30;
+  public static final int NOT_EQUALS = 31;
+  public static final int LESS_EQUALS = 32;
+  public static final int GREATER_EQUALS = 33;
+  public static final int TYPE_EQUALS = 34;
+  public static final int NONE = 35;
+  public static final int SOME = 36;
+  public static final int ELEM_OF = 37;
+  public static final int UNION = 38;
+  public static final int INTERSECTION = 39;
+  public static final int EMPTY_SET = 40;
+  public static final int SUBSET = 41;
+  public static final int SUPSET = 42;
+  public static final int SUBSET_EQUALS = 43;
+  public static final int SUPSET_EQUALS = 44;
+  public static final int LOGICAL_AND = 45;
+  public static final int LOGICAL_OR = 46;
+  public static final int ADDRESS_OF = 47;
+  public static final int ARROW = 48;
+
+  // Keywords, which must follow the order of the KEYWORDS table.
+  public static final int TRUE = 49;
+  public static final int FALSE = 50;
+  public static final int NULL = 51;
+  public static final int INT = 52;
+  public static final int REAL = 53;
+  public static final int CHAR = 54;
+  public static final int STRING = 55;
+  public static final int BOOL = 56;
+  public static final int PROCESS = 57;
+  public static final int VOID = 58;
+  public static final int IF = 59;
+  public static final int WHILE = 60;
+  public static final int ELSE = 61;
+  public static final int WHERE = 62;
+  public static final int REQUIRES = 63;
+  public static final int ENSURES = 64;
+  public static final int AS = 65;
+  public static final int FOR = 66;
+  public static final int ASSERT = 67;
+  public static final int DEBUG = 68;
+  public static final int PRINT = 69;
+  public static final int RETURN = 70;
+  public static final int DEFINE = 71;
+  public static final int FUNCTION = 72;
+  public static final int IMPORT = 73;
+  public static final int PACKAGE = 74;
+  public static final int PUBLIC = 75;
+  public static final int EXTERN = 76;
+  public static final int SPAWN = 77;
+
+  public static final String[] KEYWORDS = { "true", "false", "null", "int",
+      "real", "char", "string", "bool", "process", "void", "if", "while",
+      "else", "where", "requires", "ensures", "as", "for", "assert", "debug",
+      "print", "return", "define", "function", "import", "package", "public",
+      "extern", "spawn" };
+
+  public static boolean isKeyword(int kind) {
+    return kind >= TRUE && kind < TRUE + KEYWORDS.length;
+  }
+
+  /**
+   * A source produces the tokens of a stream on demand.
+   */
+  public interface Source {
+
+    /**
+     * Add at least one more token to the stream, if there are any left.
+     *
+     * @return False if the input has been exhausted.
+     */
+    public boolean next();
+  }
+
+  private final char[] input;
+  private Source source;
+  private int[] kinds;
+  private int[] starts;
+  private int[] ends;
+  private int[] values;
+
+  /**
+   * The number of tokens added so far, and the first token which has not
+   * been released. Token i is held in slot (i & mask) of the arrays.
+   */
+  private int size = 0;
+  private int base = 0;
+  private int mask;
+
+  private String[] strings = new String[16];
+  private int nstrings = 0;
+
+  private double[] reals = new double[16];
+  private int nreals = 0;
+
+  /**
+   * The interned table maps the hash of a string to its index in the table
+   * of strings (plus one, so that zero marks an empty slot). It uses open
+   * addressing, and is kept at most half full.
+   */
+  private int[] interned = new int[64];
+
+  /**
+   * Construct an empty token stream over the given input.
+   *
+   * @param input The characters which the tokens' positions refer to.
+   * @param capacity The expected number of tokens.
+   */
+  public TokenStream(char[] input, int capacity) {
+    this(input, capacity, null);
+  }
+
+  /**
+   * Construct a token stream over the given input, whose tokens are produced
+   * on demand by the given source.
+   *
+   * @param input The characters which the tokens' positions refer to.
+   * @param capacity The expected number of tokens held at once.
+   * @param source
+   */
+  public TokenStream(char[] input, int capacity, Source source) {
+    this.input = input;
+    this.source = source;
+    capacity = Integer.highestOneBit(Math.max(capacity, 16) * 2 - 1);
+    mask = capacity - 1;
+    kinds = new int[capacity];
+    starts = new int[capacity];
+    ends = new int[capacity];
+    values = new int[capacity];
+  }
+
+  /**
+   * Append a token to the stream.
+   *
+   * @param kind
+   * @param start The position of the token's first character.
+   * @param end The position just after the token's last character.
+   * @param value
+   */
+  public void add(int kind, int start, int end, int value) {
+    if (size - base == kinds.length) {
+      grow();
+    }
+    int slot = size & mask;
+    kinds[slot] = kind;
+    starts[slot] = start;
+    ends[slot] = end - 1;
+    values[slot] = value;
+    size++;
+  }
+
+  private void grow() {
+    int capacity = kinds.length * 2;
+    int[] nkinds = new int[capacity];
+    int[] nstarts = new int[capacity];
+    int[] nends = new int[capacity];
+    int[] nvalues = new int[capacity];
+    int nmask = capacity - 1;
+    for (int i = base; i != size; ++i) {
+      nkinds[i & nmask] = kinds[i & mask];
+      nstarts[i & nmask] = starts[i & mask];
+      nends[i & nmask] = ends[i & mask];
+      nvalues[i & nmask] = values[i & mask];
+    }
+    kinds = nkinds;
+    starts = nstarts;
+    ends = nends;
+    values = nvalues;
+    mask = nmask;
+  }
+
+  /**
+   * Get the number of tokens added to the stream so far. Once a stream has
+   * been read to its end, this is the number of tokens in the input.
+   *
+   * @return
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Determine whether the given token exists, pulling tokens from the
+   * source until it does or the input is exhausted.
+   *
+   * @param index
+   * @return
+   */
+  public boolean has(int index) {
+    while (index >= size && source != null) {
+      if (!source.next()) {
+        source = null;
+      }
+    }
+    return index < size;
+  }
+
+  /**
+   * Release every token before the given one, allowing the space they
+   * occupy to be reused. Released tokens cannot be accessed again.
+   *
+   * @param index
+   */
+  public void release(int index) {
+    base = Math.max(base, Math.min(index, size));
+  }
+
+  public int kind(int index) {
+    check(index);
+    return kinds[index & mask];
+  }
+
+  public int start(int index) {
+    check(index);
+    return starts[index & mask];
+  }
+
+  /**
+   * Get the position of the last character of the given token.
+   *
+   * @param index
+   * @return
+   */
+  public int end(int index) {
+    check(index);
+    return ends[index & mask];
+  }
+
+  public int value(int index) {
+    check(index);
+    return values[index & mask];
+  }
+
+  /**
+   * Get the name of an identifier, or the contents of a string literal.
+   *
+   * @param index
+   * @return
+   */
+  public String string(int index) {
+    check(index);
+    return strings[values[index & mask]];
+  }
+
+  public double real(int index) {
+    check(index);
+    return reals[values[index & mask]];
+  }
+
+  public BigInteger bigInteger(int index) {
+    check(index);
+    return new BigInteger(strings[values[index & mask]]);
+  }
+
+  /**
+   * Add the given value to the table of reals.
+   *
+   * @param value
+   * @return The index of the value in the table.
+   */
+  public int addReal(double value) {
+    if (nreals == reals.length) {
+      reals = Arrays.copyOf(reals, nreals * 2);
+    }
+    reals[nreals] = value;
+    return nreals++;
+  }
+
+  /**
+   * Since the arrays are used as a ring, an index outside the stream must be
+   * caught here rather than by the arrays. The parser relies on this when it
+   * backtracks after running off the end of the stream.
+   *
+   * @param index
+   */
+  private void check(int index) {
+    if (index < base) {
+      throw new IllegalStateException("token " + index + " has been released");
+    } else if (!has(index)) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+          + size);
+    }
+  }
+
+  /**
+   * Get the text of the given token, exactly as it appears in the input.
+   *
+   * @param index
+   * @return
+   */
+  public String text(int index) {
+    check(index);
+    int slot = index & mask;
+    int kind = kinds[slot];
+    if (kind == IDENTIFIER) {
+      return strings[values[slot]];
+    } else if (isKeyword(kind)) {
+      return KEYWORDS[kind - TRUE];
+    }
+    return new String(input, starts[slot], ends[slot] - starts[slot] + 1);
+  }
+
+  /**
+   * Add the input characters between the given positions to the table of
+   * strings, unless they are already there. No string is created if they
+   * are.
+   *
+   * @param start
+   * @param end The position just after the last character.
+   * @return The index of the string in the table.
+   */
+  public int intern(int start, int end) {
+    int hash = 0;
+    for (int i = start; i != end; ++i) {
+      hash = 31 * hash + input[i];
+    }
+    return intern(start, end, hash);
+  }
+
+  /**
+   * Add the input characters between the given positions to the table of
+   * strings, given that their hash code (as a string) has already been
+   * computed.
+   *
+   * @param start
+   * @param end The position just after the last character.
+   * @param hash
+   * @return The index of the string in the table.
+   */
+  public int intern(int start, int end, int hash) {
+    int mask = interned.length - 1;
+    for (int slot = mix(hash) & mask;; slot = (slot + 1) & mask) {
+      int entry = interned[slot];
+      if (entry == 0) {
+        return insert(slot, new String(input, start, end - start));
+      }
+      String s = strings[entry - 1];
+      if (s.length() == end - start && s.hashCode() == hash
+          && equals(s, start)) {
+        return entry - 1;
+      }
+    }
+  }
+
+  /**
+   * Add the name between the given positions to the table of strings, as for
+   * intern(). A name which is new to the table is replaced by its canonical
+   * string from the compiler's symbol table, so that it is shared with every
+   * other use of the name.
+   *
+   * @param start
+   * @param end The position just after the last character.
+   * @param hash
+   * @return The index of the string in the table.
+   */
+  public int symbol(int start, int end, int hash) {
+    int n = nstrings;
+    int index = intern(start, end, hash);
+    if (index == n) {
+      strings[index] = Symbols.intern(strings[index]);
+    }
+    return index;
+  }
+
+  /**
+   * Add the given string to the table of strings, unless it's already there.
+   *
+   * @param s
+   * @return The index of the string in the table.
+   */
+  public int intern(String s) {
+    int mask = interned.length - 1;
+    for (int slot = mix(s.hashCode()) & mask;; slot = (slot + 1) & mask) {
+      int entry = interned[slot];
+      if (entry == 0) {
+        return insert(slot, s);
+      } else if (strings[entry - 1].equals(s)) {
+        return entry - 1;
+      }
+    }
+  }
+
+  private int insert(int slot, String s) {
+    if (nstrings == strings.length) {
+      strings = Arrays.copyOf(strings, nstrings * 2);
+    }
+    strings[nstrings++] = s;
+    interned[slot] = nstrings;
+
+    if (nstrings * 2 > interned.length) {
+      // rehash everything into a larger table.
+      interned = new int[interned.length * 2];
+      int mask = interned.length - 1;
+      for (int i = 0; i != nstrings; ++i) {
+        int j = mix(strings[i].hashCode()) & mask;
+        while (interned[j] != 0) {
+          j = (j + 1) & mask;
+        }
+        interned[j] = i + 1;
+      }
+    }
+    return nstrings - 1;
+  }
+
+  private boolean equals(String s, int start) {
+    for (int i = 0; i != s.length(); ++i) {
+      if (s.charAt(i) != input[start + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int mix(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+}
@@ -2,6 +2,7 @@ package wyjs.stages;
 
 import static wyjs.util.SyntaxError.syntaxError;
 
+import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -43,6 +44,7 @@ import wyjs.lang.Stmt.While;
 import wyjs.lang.Type;
 import wyjs.lang.UnresolvedType;
 import wyjs.util.Attribute;
+import wyjs.util.Metrics;
 import wyjs.util.Pair;
 import wyjs.util.ResolveError;
 import wyjs.util.SyntacticElement;
@@ -51,6 +53,7 @@ import wyjs.util.SyntaxError;
 public class TypeChecker {
 
   private ModuleLoader loader;
+  private Metrics metrics;
   private HashSet<ModuleID> modules;
   private HashMap<NameID, Module> filemap;
   private HashMap<NameID, List<Type.Fun>> functions;
@@ -61,7 +64,12 @@ public class TypeChecker {
   private FunDecl currentFunDecl;
 
   public TypeChecker(ModuleLoader loader) {
+    this(loader, new Metrics());
+  }
+
+  public TypeChecker(ModuleLoader loader, Metrics metrics) {
     this.loader = loader;
+    this.metrics = metrics;
   }
 
   public void check(List<Module> files) {
@@ -78,22 +86,29 @@ public class TypeChecker {
     }
 
     // Stage 1 ... resolve and check types of all named types + constants
+    // (this spans all files, so isn't measured against any one of them)
+    Metrics.Timer timer = metrics.start(null, Metrics.Phase.TYPECHECK);
     generateConstants(files);
     generateTypes(files);
+    timer.stop();
 
     // Stage 2 ... resolve and check types for all functions
     for (Module f : files) {
+      timer = metrics.start(f.filename, Metrics.Phase.TYPECHECK);
       filename = f.filename;
       for (Module.Decl d : f.declarations) {
         if (d instanceof FunDecl) {
           partResolve(f.id(), (FunDecl) d);
         }
       }
+      timer.stop();
     }
 
     // Stage 3 ... propagate types through all expressions
     for (Module f : files) {
+      timer = metrics.start(f.filename, Metrics.Phase.TYPECHECK);
       resolve(f);
+      timer.stop();
     }
   }
 
@@ -617,7 +632,7 @@ public class TypeChecker {
       return Type.T_BOOL;
     } else if (v instanceof Character) {
       return Type.T_CHAR;
-    } else if (v instanceof Integer) {
+    } else if (v instanceof Integer || v instanceof BigInteger) {
       return Type.T_INT;
     } else if (v instanceof Double) {
       return Type.T_REAL;
@@ -649,7 +664,16 @@ public class TypeChecker {
     Attribute.Module mattr = v.attribute(Attribute.Module.class);
     if (mattr != null) {
       Expr constant = constants.get(new NameID(mattr.module, v.var));
-      return resolve(constant, environment);
+      if (constant == null && !modules.contains(mattr.module)) {
+        // indicates a non-local constant
+        ConstDecl cd = loader.loadModule(mattr.module).constant(v.var);
+        if (cd != null) {
+          constant = cd.constant;
+        }
+      }
+      if (constant != null) {
+        return resolve(constant, environment);
+      }
     }
     syntaxError("variable not defined", filename, v);
     return null;
@@ -793,9 +817,15 @@ public class TypeChecker {
       List<FunDecl> fmatches = m.functions(nid.name());
       matches = new ArrayList<Type.Fun>();
       for (FunDecl fd : fmatches) {
-        partResolve(m.id(), fd);
-        matches.add(fd.attribute(Attribute.FunType.class).type);
+        Attribute.FunType ft = fd.attribute(Attribute.FunType.class);
+        if (ft == null) {
+          // not resolved by an earlier compilation using the same loader.
+          partResolve(m.id(), fd);
+          ft = fd.attribute(Attribute.FunType.class);
+        }
+        matches.add(ft.type);
       }
+      functions.put(nid, matches);
     }
 
     return matches;
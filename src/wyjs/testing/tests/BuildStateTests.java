@@ -0,0 +1,215 @@
+package wyjs.testing.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import wyjs.Main;
+
+/**
+ * Checks which modules an incremental build compiles again, by marking the
+ * output of the previous build and seeing which files are written over.
+ *
+ * Alpha uses Bravo, Charlie uses the library module mylib.Lima, and Delta
+ * stands alone.
+ */
+public class BuildStateTests {
+
+  /**
+   * The modification time given to output files before each rebuild.
+   */
+  private static final long MARK = 1000000000000L;
+
+  private static final String[] MODULES = { "Alpha", "Bravo", "Charlie",
+      "Delta" };
+
+  private File dir;
+  private File src;
+  private File lib;
+  private File state;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = File.createTempFile("wyjs", "");
+    dir.delete();
+    src = new File(dir, "src");
+    lib = new File(dir, "lib");
+    new File(lib, "mylib").mkdirs();
+    src.mkdirs();
+    state = new File(dir, "build-state");
+
+    write(new File(src, "Alpha.wyjs"), "void main([string] args):\n"
+        + "    println(f(1))\n");
+    write(new File(src, "Bravo.wyjs"), "int f(int x):\n"
+        + "    return x + 1\n");
+    write(new File(src, "Charlie.wyjs"), "import mylib.*\n\n"
+        + "void main([string] args):\n    println(g(1))\n");
+    write(new File(src, "Delta.wyjs"), "void main([string] args):\n"
+        + "    println(1)\n");
+    write(new File(lib, "mylib" + File.separator + "Lima.wyjs"),
+        "package mylib\n\nint g(int x):\n    return x * 2\n");
+  }
+
+  @After
+  public void tearDown() {
+    delete(dir);
+  }
+
+  @Test
+  public void Build_Unchanged() throws IOException {
+    assertEquals(all(), build());
+    assertEquals(none(), build());
+  }
+
+  @Test
+  public void Build_NoState() throws IOException {
+    build();
+    state.delete();
+    assertEquals(all(), build());
+  }
+
+  @Test
+  public void Build_Changed() throws IOException {
+    build();
+    append("Delta", "// a comment\n");
+    assertEquals(set("Delta"), build());
+    assertEquals(none(), build());
+  }
+
+  @Test
+  public void Build_Touched() throws IOException {
+    build();
+    // only the contents of a file matter, not when it was modified.
+    File file = new File(src, "Bravo.wyjs");
+    assertTrue(file.setLastModified(file.lastModified() + 10000));
+    assertEquals(none(), build());
+  }
+
+  @Test
+  public void Build_Dependency() throws IOException {
+    build();
+    append("Bravo", "\nint h(int x):\n    return x\n");
+    assertEquals(set("Alpha", "Bravo"), build());
+    append("Alpha", "// a comment\n");
+    assertEquals(set("Alpha"), build());
+  }
+
+  @Test
+  public void Build_MissingOutput() throws IOException {
+    build();
+    new File(src, "Bravo.js").delete();
+    assertEquals(set("Alpha", "Bravo"), build());
+    new File(src, "Alpha.js").delete();
+    assertEquals(set("Alpha"), build());
+  }
+
+  @Test
+  public void Build_WhileypathChanged() throws IOException {
+    build();
+    assertEquals(all(), build(src.getPath(), lib.getPath(), dir.getPath()));
+    assertEquals(none(), build(src.getPath(), lib.getPath(), dir.getPath()));
+  }
+
+  @Test
+  public void Build_LibraryChanged() throws IOException {
+    build();
+    write(new File(lib, "mylib" + File.separator + "Lima.wyjs"),
+        "package mylib\n\nint g(int x):\n    return x * 3\n");
+    assertEquals(all(), build());
+    assertEquals(none(), build());
+  }
+
+  /**
+   * Mark the output of the last build, build every module again with the
+   * default whileypath, and return the modules whose output was rewritten.
+   */
+  private Set<String> build() throws IOException {
+    return build(src.getPath(), lib.getPath());
+  }
+
+  private Set<String> build(String... whileypath) throws IOException {
+    for (String m : MODULES) {
+      File js = new File(src, m + ".js");
+      if (js.exists()) {
+        assertTrue(js.setLastModified(MARK));
+      }
+    }
+
+    String wp = "";
+    for (String p : whileypath) {
+      wp += wp.equals("") ? p : File.pathSeparator + p;
+    }
+    String[] args = new String[4 + MODULES.length];
+    args[0] = "-wp";
+    args[1] = wp;
+    args[2] = "-incremental";
+    args[3] = state.getPath();
+    for (int i = 0; i != MODULES.length; ++i) {
+      args[4 + i] = new File(src, MODULES[i] + ".wyjs").getPath();
+    }
+    assertEquals(0, Main.run(args));
+
+    TreeSet<String> rebuilt = new TreeSet<String>();
+    for (String m : MODULES) {
+      File js = new File(src, m + ".js");
+      assertTrue(js.exists());
+      if (js.lastModified() != MARK) {
+        rebuilt.add(m);
+      }
+    }
+    return rebuilt;
+  }
+
+  private void append(String module, String text) throws IOException {
+    OutputStream out =
+        new FileOutputStream(new File(src, module + ".wyjs"), true);
+    try {
+      out.write(text.getBytes("UTF8"));
+    } finally {
+      out.close();
+    }
+  }
+
+  private static Set<String> set(String... modules) {
+    return new HashSet<String>(Arrays.asList(modules));
+  }
+
+  private static Set<String> all() {
+    return set(MODULES);
+  }
+
+  private static Set<String> none() {
+    return set();
+  }
+
+  private static void write(File file, String text) throws IOException {
+    OutputStream out = new FileOutputStream(file);
+    try {
+      out.write(text.getBytes("UTF8"));
+    } finally {
+      out.close();
+    }
+  }
+
+  private static void delete(File file) {
+    File[] files = file.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        delete(f);
+      }
+    }
+    file.delete();
+  }
+}
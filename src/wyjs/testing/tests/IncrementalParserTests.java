@@ -0,0 +1,259 @@
+package wyjs.testing.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import wyjs.ModuleLoader;
+import wyjs.lang.Module;
+import wyjs.stages.IncrementalParser;
+import wyjs.stages.Lexer;
+import wyjs.stages.NameResolution;
+import wyjs.stages.Parser;
+import wyjs.stages.TypeChecker;
+
+/**
+ * Checks that after each edit, the incremental parser gives the same module
+ * as parsing its text from scratch: the same declarations, with the same
+ * source positions, or an error exactly when a fresh parse fails. (The error
+ * itself may differ, since the two need not read the text in the same order.)
+ * The declarations it reuses must also resolve and type check just as those
+ * of a fresh parse, however many times they have been through those stages.
+ */
+public class IncrementalParserTests {
+
+  private static final String FILENAME = "Test.wyjs";
+
+  private static final List<String> WHILEYPATH = Arrays.asList(".",
+      "stdlib/");
+
+  private static final String[] DECLS = { "define anat as int\n",
+      "define bnat as int\n", "define c as 1\n", "void main():\n    x = 1\n",
+      "int f(int x):\n    return x\n", "define big as 12345678901234567890\n",
+      "// comment\n", "\n" };
+
+  private static final String[] INSERTS = { "define anat as int\n",
+      "void main():\n    x = 1\n", "int f(int x):\n    return x\n",
+      "    print(1)\n", "    pr", "// comment\n", "\n", " ", "x", "(", ")",
+      ":", "\t", "1", "\"s\"", "import lib.*\n" };
+
+  @Test
+  public void Edit_AfterError_1() {
+    IncrementalParser parser = parser(
+        "// comment\n\ndefine anat as int\ndefine bnat as int\n\n"
+            + "void main():\n    x = 1\n");
+    edit(parser, 14, 2, "");
+    edit(parser, parser.text().length(), 0, "");
+    edit(parser, 5, 17, " ");
+  }
+
+  @Test
+  public void Edit_AfterError_2() {
+    IncrementalParser parser = parser(
+        "// comment\ndefine c as 1\ndefine c as 1\n// comment\n"
+            + "void main():\n    x = 1\n");
+    edit(parser, 17, 2, "");
+    edit(parser, 71, 0, "1");
+    edit(parser, 5, 1, "u");
+    edit(parser, 7, 8, "");
+  }
+
+  @Test
+  public void Resolve_Twice_1() {
+    IncrementalParser parser = parser(
+        "import wyjs.lang.*\n\nvoid main():\n    println(1 + 2)\n");
+    resolve(parser);
+    resolve(parser);
+    // a local function is found before an imported one.
+    edit(parser, 19, 0, "void println(int x):\n    return\n\n");
+    resolve(parser);
+  }
+
+  @Test
+  public void Resolve_Twice_2() {
+    IncrementalParser parser = parser(
+        "define nat as int\n\n{int} f({int} xs, {int} ys):\n"
+            + "    return xs + ys\n\nvoid main():\n    f({1}, {2})\n");
+    resolve(parser);
+    edit(parser, 0, 0, "// comment\n");
+    resolve(parser);
+  }
+
+  @Test
+  public void Edit_Random() {
+    for (int seed = 0; seed != 2000; ++seed) {
+      Random random = new Random(seed);
+      StringBuilder text = new StringBuilder();
+      for (int i = 2 + random.nextInt(9); i > 0; --i) {
+        text.append(DECLS[random.nextInt(DECLS.length)]);
+      }
+      IncrementalParser parser = parser(text.toString());
+
+      for (int i = 0; i != 25; ++i) {
+        int length = parser.text().length();
+        // edits at the end of the text affect the last declaration.
+        int offset = random.nextInt(4) == 0 ? length
+            : random.nextInt(length + 1);
+        int removed = Math.min(length - offset, random.nextInt(3) == 0
+            ? random.nextInt(25) : random.nextInt(4));
+        String inserted;
+        switch (random.nextInt(3)) {
+        case 0:
+          inserted = "";
+          break;
+        case 1:
+          inserted = String.valueOf((char) (32 + random.nextInt(95)));
+          break;
+        default:
+          inserted = INSERTS[random.nextInt(INSERTS.length)];
+        }
+        edit(parser, offset, removed, inserted);
+      }
+    }
+  }
+
+  private static IncrementalParser parser(String text) {
+    IncrementalParser parser = new IncrementalParser(FILENAME, text);
+    check(parser);
+    return parser;
+  }
+
+  private static void edit(IncrementalParser parser, int offset, int removed,
+      String inserted) {
+    String text = parser.text();
+    parser.edit(offset, removed, inserted);
+    assertEquals(text.substring(0, offset) + inserted
+        + text.substring(offset + removed), parser.text());
+    check(parser);
+  }
+
+  private static void check(IncrementalParser parser) {
+    String text = parser.text();
+    String expected = parse(text);
+    String actual;
+    try {
+      actual = describe(parser.module());
+    } catch (RuntimeException e) {
+      actual = null;
+    }
+    if (expected == null && actual != null) {
+      fail("parsed when it shouldn't have: " + text);
+    } else if (expected != null && actual == null) {
+      fail("didn't parse when it should have: " + text);
+    } else if (expected != null) {
+      assertEquals(text, expected, actual);
+    }
+  }
+
+  /**
+   * Resolve and type check the parser's current module, and check that the
+   * result is the same as for a fresh parse of its text.
+   */
+  private static void resolve(IncrementalParser parser) {
+    String text = parser.text();
+    Lexer lexer = new Lexer(FILENAME, text.toCharArray(), text.length());
+    assertEquals(text,
+        describe(compile(new Parser(FILENAME, lexer.stream()).read())),
+        describe(compile(parser.module())));
+  }
+
+  private static Module compile(Module module) {
+    ModuleLoader loader = new ModuleLoader(WHILEYPATH);
+    try {
+      loader.register(module);
+      List<Module> modules = Arrays.asList(module);
+      new NameResolution(loader).resolve(modules);
+      new TypeChecker(loader).check(modules);
+      return module;
+    } finally {
+      loader.close();
+    }
+  }
+
+  /**
+   * Parse the given text from scratch, returning a description of the
+   * module, or null if it doesn't parse.
+   */
+  private static String parse(String text) {
+    try {
+      Lexer lexer = new Lexer(FILENAME, text.toCharArray(), text.length());
+      return describe(new Parser(FILENAME, lexer.stream()).read());
+    } catch (RuntimeException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Describe every field of the module, and of everything it refers to, so
+   * that two modules have the same description if and only if they are the
+   * same.
+   */
+  private static String describe(Module module) {
+    StringBuilder out = new StringBuilder();
+    Set<Object> visited =
+        Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    try {
+      describe(module, out, visited);
+    } catch (IllegalAccessException e) {
+      throw new RuntimeException(e);
+    }
+    return out.toString();
+  }
+
+  private static void describe(Object o, StringBuilder out, Set<Object> visited)
+      throws IllegalAccessException {
+    if (o == null || o instanceof Enum
+        || (o.getClass().getName().startsWith("java.")
+            && !(o instanceof Collection) && !(o instanceof Map))) {
+      // the fields of the standard library's classes may not be accessible.
+      out.append(o);
+      return;
+    } else if (!visited.add(o)) {
+      out.append("^");
+      return;
+    }
+
+    if (o instanceof Collection) {
+      out.append("[");
+      for (Object e : (Collection<?>) o) {
+        describe(e, out, visited);
+        out.append(",");
+      }
+      out.append("]");
+    } else if (o instanceof Map) {
+      out.append("{");
+      for (Map.Entry<?, ?> e : new TreeMap<Object, Object>((Map<?, ?>) o)
+          .entrySet()) {
+        out.append(e.getKey()).append("=");
+        describe(e.getValue(), out, visited);
+        out.append(",");
+      }
+      out.append("}");
+    } else {
+      out.append(o.getClass().getSimpleName()).append("(");
+      for (Class<?> c = o.getClass(); c != Object.class; c = c.getSuperclass()) {
+        for (Field f : c.getDeclaredFields()) {
+          if (!java.lang.reflect.Modifier.isStatic(f.getModifiers())) {
+            f.setAccessible(true);
+            out.append(f.getName()).append(":");
+            describe(f.get(o), out, visited);
+            out.append(" ");
+          }
+        }
+      }
+      out.append(")");
+    }
+  }
+}
@@ -0,0 +1,231 @@
+package wyjs.testing.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import wyjs.ModuleInterface;
+import wyjs.ModuleLoader;
+import wyjs.lang.Expr;
+import wyjs.lang.Module;
+import wyjs.lang.ModuleID;
+import wyjs.lang.PkgID;
+import wyjs.lang.Module.ConstDecl;
+import wyjs.lang.Module.Decl;
+import wyjs.lang.Module.FunDecl;
+import wyjs.stages.Lexer;
+import wyjs.stages.NameResolution;
+import wyjs.stages.Parser;
+import wyjs.util.ResolveError;
+
+/**
+ * Checks that a module interface reads back as the module it was written
+ * from, and that it is only used while its source file is unchanged.
+ */
+public class ModuleInterfaceTests {
+
+  private static final String LONG_STRING;
+
+  static {
+    // longer than writeUTF() can write.
+    StringBuilder s = new StringBuilder();
+    for (int i = 0; i != 70000; ++i) {
+      s.append((char) ('a' + i % 26));
+    }
+    LONG_STRING = s.toString();
+  }
+
+  private static final String SOURCE = "define small as 1\n"
+      + "define big as 123456789012345678901234567890\n"
+      + "define ratio as 1.5\n"
+      + "define yes as true\n"
+      + "define letter as 'a'\n"
+      + "define nothing as null\n"
+      + "define empty as {}\n"
+      + "define alias as small\n"
+      + "define text as \"" + LONG_STRING + "\"\n"
+      + "define point as {int x, real y}\n"
+      + "define shape as point | [int] | {string->{bool}} | (int, char)\n"
+      + "define handler as int(point, *)\n"
+      + "\n"
+      + "int f(point p, [shape] xs):\n"
+      + "    return p.x\n"
+      + "\n"
+      + "public void g(handler h, ? x):\n"
+      + "    return\n";
+
+  private File dir;
+  private File source;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = File.createTempFile("wyjs", "");
+    dir.delete();
+    dir.mkdir();
+    source = new File(dir, "Lib.wyjs");
+    write(source, SOURCE);
+  }
+
+  @After
+  public void tearDown() {
+    for (File f : dir.listFiles()) {
+      f.delete();
+    }
+    dir.delete();
+  }
+
+  @Test
+  public void Interface_RoundTrip() throws IOException {
+    Module module = compile(source);
+    File file = ModuleInterface.interfaceFile(source);
+    ModuleInterface.write(module);
+    assertTrue(ModuleInterface.isCurrent(file, source));
+    byte[] written = read(file);
+
+    Module loaded = ModuleInterface.read(file, source);
+    assertEquals(module.id(), loaded.id());
+    assertEquals(source.getPath(), loaded.filename);
+    assertEquals(names(module), names(loaded));
+    assertEquals(new BigInteger("123456789012345678901234567890"),
+        constant(loaded, "big"));
+    assertEquals(LONG_STRING, constant(loaded, "text"));
+    assertEquals(1.5, constant(loaded, "ratio"));
+    assertEquals('a', constant(loaded, "letter"));
+
+    // the interface holds everything it was written from, so writing what
+    // was read back must give the same interface again.
+    ModuleInterface.write(loaded);
+    assertArrayEquals(written, read(file));
+  }
+
+  @Test
+  public void Interface_Unsupported() throws IOException {
+    write(source, "define odd as {1, 3, 5}\n");
+    File file = ModuleInterface.interfaceFile(source);
+    write(file, "stale");
+    ModuleInterface.write(compile(source));
+    assertFalse(file.exists());
+  }
+
+  @Test
+  public void Interface_SourceChanged() throws IOException, ResolveError {
+    File file = ModuleInterface.interfaceFile(source);
+    ModuleInterface.write(compile(source));
+    assertTrue(ModuleInterface.isCurrent(file, source));
+    assertTrue(load().isEmpty());
+
+    // the same length, but modified at another time.
+    long modified = source.lastModified();
+    assertTrue(source.setLastModified(modified - 10000));
+    assertFalse(ModuleInterface.isCurrent(file, source));
+    assertFalse(load().isEmpty());
+
+    ModuleInterface.write(compile(source));
+    assertTrue(ModuleInterface.isCurrent(file, source));
+
+    // another length, modified at the same time.
+    modified = source.lastModified();
+    write(source, SOURCE + "\n");
+    assertTrue(source.setLastModified(modified));
+    assertFalse(ModuleInterface.isCurrent(file, source));
+    assertFalse(load().isEmpty());
+  }
+
+  /**
+   * Lex, parse and resolve the given module, which is all that is needed
+   * before its interface is written.
+   */
+  private Module compile(File file) throws IOException {
+    Module module = new Parser(file.getPath(),
+        new Lexer(file.getPath()).stream()).read();
+    ModuleLoader loader = loader();
+    try {
+      loader.register(module);
+      List<Module> modules = Arrays.asList(module);
+      new NameResolution(loader).resolve(modules);
+      return module;
+    } finally {
+      loader.close();
+    }
+  }
+
+  /**
+   * Load the module from the whileypath, as is done for an imported module,
+   * returning the statements of its function f. These are empty if the
+   * module was read from its interface.
+   */
+  private List<?> load() throws ResolveError {
+    ModuleLoader loader = loader();
+    try {
+      Module module = loader.loadModule(new ModuleID(new PkgID(), "Lib"));
+      for (Decl d : module.declarations) {
+        if (d instanceof FunDecl && ((FunDecl) d).name.equals("f")) {
+          return ((FunDecl) d).statements;
+        }
+      }
+      throw new AssertionError("no function f");
+    } finally {
+      loader.close();
+    }
+  }
+
+  private ModuleLoader loader() {
+    return new ModuleLoader(Arrays.asList(dir.getPath(), "stdlib/"));
+  }
+
+  private static List<String> names(Module module) {
+    ArrayList<String> names = new ArrayList<String>();
+    for (Decl d : module.declarations) {
+      names.add(d.name());
+    }
+    return names;
+  }
+
+  private static Object constant(Module module, String name) {
+    for (Decl d : module.declarations) {
+      if (d instanceof ConstDecl && d.name().equals(name)) {
+        return ((Expr.Constant) ((ConstDecl) d).constant).value;
+      }
+    }
+    throw new AssertionError("no constant " + name);
+  }
+
+  private static void write(File file, String text) throws IOException {
+    OutputStream out = new FileOutputStream(file);
+    try {
+      out.write(text.getBytes("UTF8"));
+    } finally {
+      out.close();
+    }
+  }
+
+  private static byte[] read(File file) throws IOException {
+    byte[] bytes = new byte[(int) file.length()];
+    InputStream in = new FileInputStream(file);
+    try {
+      int n = 0;
+      while (n < bytes.length) {
+        n += in.read(bytes, n, bytes.length - n);
+      }
+    } finally {
+      in.close();
+    }
+    return bytes;
+  }
+}
@@ -311,6 +311,21 @@ public class RuntimeValidTests extends TestHarness {
     runTest("IntConst_Valid_1");
   }
 
+  @Test
+  public void IntConst_Valid_2_RuntimeTest() {
+    runTest("IntConst_Valid_2");
+  }
+
+  @Test
+  public void IntConst_Valid_3_RuntimeTest() {
+    runTest("IntConst_Valid_3");
+  }
+
+  @Test
+  public void IntConst_Valid_4_RuntimeTest() {
+    runTest("IntConst_Valid_4");
+  }
+
   @Test
   public void IntDefine_Valid_1_RuntimeTest() {
     runTest("IntDefine_Valid_1");
@@ -561,6 +576,11 @@ public class RuntimeValidTests extends TestHarness {
     runTest("RealConst_Valid_1");
   }
 
+  @Test
+  public void RealConst_Valid_2_RuntimeTest() {
+    runTest("RealConst_Valid_2");
+  }
+
   @Test
   public void RealDiv_Valid_1_RuntimeTest() {
     runTest("RealDiv_Valid_1");
@@ -0,0 +1,153 @@
+// This file is part of the Whiley-to-Java Compiler (wyjc).
+//
+// The Whiley-to-Java Compiler is free software; you can redistribute
+// it and/or modify it under the terms of the GNU General Public
+// License as published by the Free Software Foundation; either
+// version 3 of the License, or (at your option) any later version.
+//
+// The Whiley-to-Java Compiler is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE. See the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with the Whiley-to-Java Compiler. If not, see
+// <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+package wyjs.util;
+
+import java.util.Arrays;
+
+/**
+ * A line index records where each line of a source file starts, so that a
+ * position in the file can be turned into a line and column by binary
+ * search, rather than by reading the file up to it. The index is built by
+ * the lexer as it normalises the file's line endings, and positions refer to
+ * that normalised text (in which every line ends with a single newline).
+ * Lines are numbered from one, and columns from zero.
+ *
+ * @author David Pearce
+ */
+public final class LineIndex {
+
+  private final char[] text;
+  private final int[] starts;
+  private final int lines;
+
+  /**
+   * Construct an index of the given text, whose lines start at the given
+   * positions (of which only the first count are used).
+   *
+   * @param text The normalised text, which is not copied.
+   * @param starts
+   * @param count
+   */
+  public LineIndex(char[] text, int[] starts, int count) {
+    this.text = text;
+    this.starts = starts;
+    this.lines = count;
+  }
+
+  /**
+   * Index the lines of the given normalised text.
+   *
+   * @param text
+   * @param length The number of characters of text to index.
+   */
+  public static LineIndex build(char[] text, int length) {
+    Builder builder = new Builder();
+    for (int i = 0; i < length - 1; ++i) {
+      if (text[i] == '\n') {
+        builder.add(i + 1);
+      }
+    }
+    return builder.build(text);
+  }
+
+  /**
+   * Get the number of lines.
+   *
+   * @return
+   */
+  public int lines() {
+    return lines;
+  }
+
+  /**
+   * Get the line containing the given position. Positions outside the text
+   * are taken to be on its first or last line.
+   *
+   * @param position
+   * @return
+   */
+  public int line(int position) {
+    int lo = 0, hi = lines - 1;
+    // find the last line starting at or before the position.
+    while (lo < hi) {
+      int mid = (lo + hi + 1) >>> 1;
+      if (starts[mid] <= position) {
+        lo = mid;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    return lo + 1;
+  }
+
+  public int column(int position) {
+    return position - start(line(position));
+  }
+
+  /**
+   * Get the position of the first character of the given line.
+   *
+   * @param line
+   * @return
+   */
+  public int start(int line) {
+    return starts[line - 1];
+  }
+
+  /**
+   * Get the text of the given line, without its newline.
+   *
+   * @param line
+   * @return
+   */
+  public String text(int line) {
+    int start = start(line);
+    int end = start;
+    while (end < text.length && text[end] != '\n') {
+      end++;
+    }
+    return new String(text, start, end - start);
+  }
+
+  /**
+   * A builder collects the line starts of a text as it is scanned.
+   */
+  public static final class Builder {
+
+    private int[] starts = new int[64];
+    private int count = 1;
+
+    /**
+     * Record that a line starts at the given position, which must be after
+     * the start of every line recorded so far.
+     *
+     * @param start
+     */
+    public void add(int start) {
+      if (count == starts.length) {
+        starts = Arrays.copyOf(starts, count * 2);
+      }
+      starts[count++] = start;
+    }
+
+    public LineIndex build(char[] text) {
+      return new LineIndex(text, starts, count);
+    }
+  }
+}
@@ -0,0 +1,333 @@
+// This file is part of the Whiley-to-Java Compiler (wyjc).
+//
+// The Whiley-to-Java Compiler is free software; you can redistribute
+// it and/or modify it under the terms of the GNU General Public
+// License as published by the Free Software Foundation; either
+// version 3 of the License, or (at your option) any later version.
+//
+// The Whiley-to-Java Compiler is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE. See the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with the Whiley-to-Java Compiler. If not, see
+// <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+package wyjs.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Metrics records how long each phase of the compiler took on each module,
+ * along with the number of bytes allocated by the thread doing the work, and
+ * the number of tokens and syntactic elements the module contained, and how
+ * many of the names it used were resolved from the name cache. The metrics
+ * can be reported through a logger, or written as JSON.
+ *
+ * Phases may run on any thread, but each measurement must be started and
+ * stopped on the same one, since allocation is counted per thread.
+ *
+ * @author djp
+ *
+ */
+public class Metrics {
+
+  public enum Phase {
+    PARSE("Parsed"), RESOLVE("Resolved"), TYPECHECK("Checked"), BUILD("Built"),
+    EMIT("Wrote");
+
+    private final String verb;
+
+    private Phase(String verb) {
+      this.verb = verb;
+    }
+
+    public String toString() {
+      return name().toLowerCase();
+    }
+  }
+
+  /**
+   * A sample accumulates the measurements of one phase.
+   */
+  private static final class Sample {
+
+    public long time = 0;
+    public long allocated = 0;
+  }
+
+  /**
+   * The measurements for a single module, identified by its file.
+   */
+  private static final class Entry {
+
+    public int tokens = -1;
+    public int nodes = -1;
+    public int hits = -1;
+    public int misses = -1;
+    public final EnumMap<Phase, Sample> phases =
+        new EnumMap<Phase, Sample>(Phase.class);
+  }
+
+  /**
+   * A timer measures one phase from the point it was started until it is
+   * stopped.
+   */
+  public final class Timer {
+
+    private final String filename;
+    private final Phase phase;
+    private final long start;
+    private final long allocated;
+
+    private Timer(String filename, Phase phase) {
+      this.filename = filename;
+      this.phase = phase;
+      this.allocated = allocated();
+      this.start = System.nanoTime();
+    }
+
+    public void stop() {
+      long time = System.nanoTime() - start;
+      long allocated = allocated();
+      if (allocated >= 0) {
+        allocated -= this.allocated;
+      }
+      record(filename, phase, time, allocated);
+    }
+  }
+
+  private static final ThreadMXBean threads = ManagementFactory
+      .getThreadMXBean();
+
+  private final LinkedHashMap<String, Entry> modules =
+      new LinkedHashMap<String, Entry>();
+  private final EnumMap<Phase, Sample> totals = new EnumMap<Phase, Sample>(
+      Phase.class);
+  private int hits = 0;
+  private int misses = 0;
+  private boolean allocations = true;
+
+  /**
+   * Start measuring the given phase on the current thread. Work which isn't
+   * done for any single module is measured by giving a null filename, in
+   * which case it is only counted towards the phase's total.
+   *
+   * @param filename
+   * @param phase
+   * @return
+   */
+  public Timer start(String filename, Phase phase) {
+    return new Timer(filename, phase);
+  }
+
+  public synchronized void tokens(String filename, int tokens) {
+    entry(filename).tokens = tokens;
+  }
+
+  public synchronized void nodes(String filename, int nodes) {
+    entry(filename).nodes = nodes;
+  }
+
+  /**
+   * Record how many of the names used in a module were found in the name
+   * cache (hits), and how many had to be resolved against its imports
+   * (misses).
+   *
+   * @param filename
+   * @param hits
+   * @param misses
+   */
+  public synchronized void names(String filename, int hits, int misses) {
+    Entry entry = entry(filename);
+    entry.hits = hits;
+    entry.misses = misses;
+    this.hits += hits;
+    this.misses += misses;
+  }
+
+  private synchronized void record(String filename, Phase phase, long time,
+      long allocated) {
+    if (allocated < 0) {
+      allocations = false;
+    }
+    if (filename != null) {
+      add(entry(filename).phases, phase, time, allocated);
+    }
+    add(totals, phase, time, allocated);
+  }
+
+  private static void add(EnumMap<Phase, Sample> samples, Phase phase,
+      long time, long allocated) {
+    Sample sample = samples.get(phase);
+    if (sample == null) {
+      sample = new Sample();
+      samples.put(phase, sample);
+    }
+    sample.time += time;
+    sample.allocated += allocated;
+  }
+
+  private Entry entry(String filename) {
+    Entry entry = modules.get(filename);
+    if (entry == null) {
+      entry = new Entry();
+      modules.put(filename, entry);
+    }
+    return entry;
+  }
+
+  /**
+   * Report each measurement through the given logger, grouped by module in
+   * the order they were first measured, followed by the total of each phase.
+   *
+   * @param logger
+   */
+  public synchronized void log(Logger logger) {
+    for (Map.Entry<String, Entry> e : modules.entrySet()) {
+      Entry entry = e.getValue();
+      for (Map.Entry<Phase, Sample> p : entry.phases.entrySet()) {
+        Phase phase = p.getKey();
+        String msg = phase.verb + " " + e.getKey() + " (";
+        if (phase == Phase.PARSE && entry.tokens >= 0) {
+          msg += entry.tokens + " tokens, ";
+        }
+        if (phase == Phase.PARSE && entry.nodes >= 0) {
+          msg += entry.nodes + " nodes, ";
+        }
+        if (phase == Phase.RESOLVE && entry.hits >= 0) {
+          msg += cached(entry.hits, entry.misses) + ", ";
+        }
+        logger.logTimedMessage(msg + kilobytes(p.getValue()) + ")",
+            p.getValue().time / 1000000);
+      }
+    }
+    for (Map.Entry<Phase, Sample> p : totals.entrySet()) {
+      String msg = "Total " + p.getKey() + " (";
+      if (p.getKey() == Phase.RESOLVE && hits + misses > 0) {
+        msg += cached(hits, misses) + ", ";
+      }
+      logger.logTimedMessage(msg + kilobytes(p.getValue()) + ")",
+          p.getValue().time / 1000000);
+    }
+  }
+
+  private static String cached(int hits, int misses) {
+    return hits + " cached names, " + misses + " uncached";
+  }
+
+  private String kilobytes(Sample sample) {
+    if (!allocations) {
+      return "allocation unknown";
+    }
+    return (sample.allocated / 1024) + "KB allocated";
+  }
+
+  /**
+   * Write every measurement to the given file as a JSON object. Times are
+   * given in nanoseconds, and allocations in bytes; an allocation is null if
+   * the virtual machine cannot measure it.
+   *
+   * @param file
+   * @throws IOException
+   */
+  public synchronized void write(File file) throws IOException {
+    PrintWriter out =
+        new PrintWriter(new OutputStreamWriter(new FileOutputStream(file),
+            "UTF8"));
+    try {
+      out.println("{");
+      out.println("  \"modules\": [");
+      int i = 0;
+      for (Map.Entry<String, Entry> e : modules.entrySet()) {
+        Entry entry = e.getValue();
+        out.print("    { \"file\": " + quote(e.getKey()));
+        if (entry.tokens >= 0) {
+          out.print(", \"tokens\": " + entry.tokens);
+        }
+        if (entry.nodes >= 0) {
+          out.print(", \"nodes\": " + entry.nodes);
+        }
+        if (entry.hits >= 0) {
+          out.print(", \"names\": " + names(entry.hits, entry.misses));
+        }
+        out.print(", \"phases\": ");
+        write(entry.phases, out);
+        out.println(++i == modules.size() ? " }" : " },");
+      }
+      out.println("  ],");
+      out.print("  \"totals\": ");
+      write(totals, out);
+      out.println(",");
+      out.println("  \"names\": " + names(hits, misses));
+      out.println("}");
+    } finally {
+      out.close();
+    }
+    if (out.checkError()) {
+      throw new IOException("unable to write metrics: " + file);
+    }
+  }
+
+  private void write(EnumMap<Phase, Sample> samples, PrintWriter out) {
+    out.print("{");
+    String sep = " ";
+    for (Map.Entry<Phase, Sample> p : samples.entrySet()) {
+      Sample sample = p.getValue();
+      out.print(sep + quote(p.getKey().toString()) + ": { \"time\": "
+          + sample.time + ", \"allocated\": "
+          + (allocations ? Long.toString(sample.allocated) : "null") + " }");
+      sep = ", ";
+    }
+    out.print(" }");
+  }
+
+  private static String names(int hits, int misses) {
+    return "{ \"hits\": " + hits + ", \"misses\": " + misses + " }";
+  }
+
+  private static String quote(String s) {
+    StringBuilder r = new StringBuilder("\"");
+    for (int i = 0; i != s.length(); ++i) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\') {
+        r.append('\\').append(c);
+      } else if (c < 0x20) {
+        r.append(String.format("\\u%04x", (int) c));
+      } else {
+        r.append(c);
+      }
+    }
+    return r.append('"').toString();
+  }
+
+  /**
+   * Get the number of bytes allocated by the current thread so far, or -1 if
+   * the virtual machine doesn't support measuring this.
+   *
+   * @return
+   */
+  private static long allocated() {
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean t =
+          (com.sun.management.ThreadMXBean) threads;
+      if (t.isThreadAllocatedMemorySupported()
+          && t.isThreadAllocatedMemoryEnabled()) {
+        return t.getThreadAllocatedBytes(Thread.currentThread().getId());
+      }
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,58 @@
+// This file is part of the Whiley-to-Java Compiler (wyjc).
+//
+// The Whiley-to-Java Compiler is free software; you can redistribute
+// it and/or modify it under the terms of the GNU General Public
+// License as published by the Free Software Foundation; either
+// version 3 of the License, or (at your option) any later version.
+//
+// The Whiley-to-Java Compiler is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE. See the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with the Whiley-to-Java Compiler. If not, see
+// <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+package wyjs.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The symbol table holds one canonical string for each distinct name used
+ * throughout the compiler: identifiers, package and module names, and the
+ * names read from module interfaces. Each name is then held in memory only
+ * once, no matter how many times it is used, and two interned names are
+ * equal if and only if they are the same object.
+ *
+ * The table is shared by every thread, and is never cleared, so it should
+ * only be used for names (and not, for example, string constants).
+ *
+ * @author David Pearce
+ */
+public final class Symbols {
+
+  private static final ConcurrentHashMap<String, String> symbols =
+      new ConcurrentHashMap<String, String>();
+
+  private Symbols() {}
+
+  /**
+   * Get the canonical string for the given name.
+   *
+   * @param name
+   * @return
+   */
+  public static String intern(String name) {
+    String symbol = symbols.get(name);
+    if (symbol == null) {
+      symbol = symbols.putIfAbsent(name, name);
+      if (symbol == null) {
+        symbol = name;
+      }
+    }
+    return symbol;
+  }
+}
@@ -19,7 +19,6 @@
 package wyjs.util;
 
 import java.util.*;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * A Syntactic Element represents any part of the file for which is relevant to
@@ -45,42 +44,199 @@ public interface SyntacticElement {
    */
   public <T extends Attribute> T attribute(Class<T> c);
 
+  /**
+   * The attributes which every stage asks for (the source position, the
+   * resolved module and the function type) are each held in a field of
+   * their own, so they can be found without searching. Any others are held
+   * in a list, which is only allocated if one is added. The list of
+   * attributes is a view of these, in which the three fields (if set) come
+   * first, followed by the others in the order they were added.
+   */
   public class Impl implements SyntacticElement {
 
-    private List<Attribute> attributes;
+    private Attribute.Source source;
+    private Attribute.Module module;
+    private Attribute.FunType funType;
+    private ArrayList<Attribute> others;
 
     public Impl() {
-      // I use copy on write here, since for the most part I don't expect
-      // attributes to change, and hence can be safely aliased. But, when they
-      // do change I need fresh copies.
-      attributes = new CopyOnWriteArrayList<Attribute>();
     }
 
     public Impl(Attribute x) {
-      attributes = new ArrayList<Attribute>();
-      attributes.add(x);
+      add(x);
     }
 
     public Impl(Collection<Attribute> attributes) {
-      this.attributes = new ArrayList<Attribute>(attributes);
+      for (Attribute a : attributes) {
+        add(a);
+      }
     }
 
     public Impl(Attribute[] attributes) {
-      this.attributes = new ArrayList<Attribute>(Arrays.asList(attributes));
+      for (Attribute a : attributes) {
+        add(a);
+      }
     }
 
     public List<Attribute> attributes() {
-      return attributes;
+      return new Attributes();
     }
 
     @SuppressWarnings("unchecked")
     public <T extends Attribute> T attribute(Class<T> c) {
-      for (Attribute a : attributes) {
+      if (c == Attribute.Source.class) {
+        return (T) source;
+      } else if (c == Attribute.Module.class) {
+        return (T) module;
+      } else if (c == Attribute.FunType.class) {
+        return (T) funType;
+      }
+      for (Attribute a : attributes()) {
         if (c.isInstance(a)) {
           return (T) a;
         }
       }
       return null;
     }
+
+    /**
+     * Add the given attribute, which takes the field for its kind if that is
+     * free (and so is the first of that kind).
+     */
+    private void add(Attribute a) {
+      if (!takesField(a)) {
+        if (others == null) {
+          others = new ArrayList<Attribute>(2);
+        }
+        others.add(a);
+      } else if (a instanceof Attribute.Source) {
+        source = (Attribute.Source) a;
+      } else if (a instanceof Attribute.Module) {
+        module = (Attribute.Module) a;
+      } else {
+        funType = (Attribute.FunType) a;
+      }
+    }
+
+    private boolean takesField(Attribute a) {
+      return (a instanceof Attribute.Source && source == null)
+          || (a instanceof Attribute.Module && module == null)
+          || (a instanceof Attribute.FunType && funType == null);
+    }
+
+
+    /**
+     * Remove and return the first of the other attributes of the given kind,
+     * which then takes the field for that kind.
+     */
+    private <T extends Attribute> T promote(Class<T> c) {
+      if (others != null) {
+        for (int i = 0; i != others.size(); ++i) {
+          if (c.isInstance(others.get(i))) {
+            return c.cast(others.remove(i));
+          }
+        }
+      }
+      return null;
+    }
+
+    private final class Attributes extends AbstractList<Attribute> {
+
+      private int fields() {
+        return (source != null ? 1 : 0) + (module != null ? 1 : 0)
+            + (funType != null ? 1 : 0);
+      }
+
+      /**
+       * Get the kind of the field at the given index, or -1 if it is one of
+       * the others.
+       */
+      private int field(int index) {
+        int i = 0;
+        if (source != null && index == i++) {
+          return 0;
+        }
+        if (module != null && index == i++) {
+          return 1;
+        }
+        if (funType != null && index == i) {
+          return 2;
+        }
+        return -1;
+      }
+
+      public int size() {
+        return fields() + (others == null ? 0 : others.size());
+      }
+
+      public Attribute get(int index) {
+        switch (field(index)) {
+        case 0:
+          return source;
+        case 1:
+          return module;
+        case 2:
+          return funType;
+        }
+        if (others == null || index < 0) {
+          throw new IndexOutOfBoundsException("index " + index);
+        }
+        return others.get(index - fields());
+      }
+
+      /**
+       * Replace the attribute at the given index. If the new attribute is of
+       * a different kind, it is added in the same way as by add(), and so may
+       * not end up at the same index.
+       */
+      public Attribute set(int index, Attribute a) {
+        int field = field(index);
+        Attribute old = get(index);
+        if (field == 0 && a instanceof Attribute.Source) {
+          source = (Attribute.Source) a;
+        } else if (field == 1 && a instanceof Attribute.Module) {
+          module = (Attribute.Module) a;
+        } else if (field == 2 && a instanceof Attribute.FunType) {
+          funType = (Attribute.FunType) a;
+        } else if (field < 0 && !takesField(a)) {
+          others.set(index - fields(), a);
+        } else {
+          remove(index);
+          Impl.this.add(a);
+        }
+        return old;
+      }
+
+      public boolean add(Attribute a) {
+        Impl.this.add(a);
+        modCount++;
+        return true;
+      }
+
+      public Attribute remove(int index) {
+        Attribute old;
+        switch (field(index)) {
+        case 0:
+          old = source;
+          source = promote(Attribute.Source.class);
+          break;
+        case 1:
+          old = module;
+          module = promote(Attribute.Module.class);
+          break;
+        case 2:
+          old = funType;
+          funType = promote(Attribute.FunType.class);
+          break;
+        default:
+          if (others == null || index < 0) {
+            throw new IndexOutOfBoundsException("index " + index);
+          }
+          old = others.remove(index - fields());
+        }
+        modCount++;
+        return old;
+      }
+    }
   }
 }